@@ -0,0 +1,59 @@
+import java.util.*;
+
+/**
+ * The set of differences applied by a config reload: which devices had their
+ * port or links changed, which routers had routes changed (and for which
+ * subnets), and how many lines changed in all
+ */
+
+public class ConfigChanges {
+    private final Set<Integer> changedDevices = new HashSet<>();
+    private final Set<Integer> changedLinks = new HashSet<>();
+    private final Map<Integer, Set<Integer>> changedRoutes = new HashMap<>();
+    private int changedLines;
+
+    void recordDevice(int device) {
+        changedDevices.add(device);
+        changedLines++;
+    }
+
+    void recordLink(int a, int b) {
+        changedLinks.add(a);
+        changedLinks.add(b);
+        changedLines++;
+    }
+
+    void recordRoute(int router, int subnet) {
+        changedRoutes.computeIfAbsent(router, k -> new HashSet<>()).add(subnet);
+        changedLines++;
+    }
+
+    void recordOther() {
+        changedLines++;
+    }
+
+    public boolean isEmpty() {
+        return changedLines == 0;
+    }
+
+    public int size() {
+        return changedLines;
+    }
+
+    public boolean deviceChanged(int device) {
+        return changedDevices.contains(device);
+    }
+
+    public int[] getChangedDevices() {
+        return changedDevices.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public boolean linksChanged(int device) {
+        return changedLinks.contains(device);
+    }
+
+    public int[] getChangedSubnets(int router) {
+        return changedRoutes.getOrDefault(router, Collections.emptySet()).stream()
+                .mapToInt(Integer::intValue).toArray();
+    }
+}
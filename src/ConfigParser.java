@@ -1,23 +1,182 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
 /**
  * ConfigParser reads and parses the network config file which contains
- * device information, links, address resolution mappings, and routing tables
+ * device information, links, address resolution mappings, and routing tables.
+ * Every name is interned into the symbol table at load time and the parsed
+ * tables are stored as arrays indexed by symbol ID. A reload parses every changed
+ * line first, applies them to a private copy of the tables and publishes the copy
+ * in one write, so devices read the tables from other threads without locking
+ * and never see a reload half applied. The names the loaded config mentions are
+ * then given the wire keys, tagged with its fingerprint, that frames use.
  */
 
 public class ConfigParser {
-    private final Map<String, VirtualPort> devices = new HashMap<>();
-    private static final Map<String, String> ipToMac = new HashMap<>();
-    private final Map<String, String> macToIp = new HashMap<>();
-    private final Map<String, List<String>> links = new HashMap<>();
-    private final Map<String, RoutingTable> routingTables = new HashMap<>();
-    private final Map<String, String> defaultGateways = new HashMap<>();
-    private String currentRouter = "";
+    private static final int[] NO_NEIGHBORS = new int[0];
+    private static final Adjacency NO_LINKS = new Adjacency(NO_NEIGHBORS, new LinkProfile[0]);
+
+    /**
+     * A device's neighbors and the profile of the link to each, at the same
+     * index. Both arrays are replaced together, so readers never see one
+     * neighbor paired with another's profile.
+     */
+    private static final class Adjacency {
+        final int[] neighbors;
+        final LinkProfile[] profiles;
+
+        Adjacency(int[] neighbors, LinkProfile[] profiles) {
+            this.neighbors = neighbors;
+            this.profiles = profiles;
+        }
+    }
+
+    /**
+     * One version of the parsed tables. A version is filled in privately and
+     * never written to again once it is published.
+     */
+    private static final class Tables {
+        VirtualPort[] devices = new VirtualPort[0];
+        int[] ipToMac = new int[0];
+        int[] macToIp = new int[0];
+        Adjacency[] links = new Adjacency[0];
+        RoutingTable[] routingTables = new RoutingTable[0];
+        int[] defaultGateways = new int[0];
+        boolean[] routers = new boolean[0];
+        boolean linkStateRouting;
+
+        Tables copy() {
+            Tables copy = new Tables();
+            copy.devices = devices.clone();
+            copy.ipToMac = ipToMac.clone();
+            copy.macToIp = macToIp.clone();
+            copy.links = links.clone();
+            copy.routingTables = routingTables.clone();
+            copy.defaultGateways = defaultGateways.clone();
+            copy.linkStateRouting = linkStateRouting;
+            return copy;
+        }
+    }
+
+    private final File configFile;
+    private final SymbolTable symbols = new SymbolTable();
+    private volatile Tables tables = new Tables();
+    private Set<String> loadedLines = new LinkedHashSet<>();
+    private Map<String, List<Integer>> lineNames = new HashMap<>();
+    private volatile long fingerprint;
 
     public ConfigParser(File configFile) {
+        this.configFile = configFile;
+        try {
+            Set<String> lines = readLines(configFile);
+            List<Consumer<Tables>> edits = new ArrayList<>();
+            Map<String, List<Integer>> names = new HashMap<>();
+            ConfigChanges changes = new ConfigChanges();
+            for (String line : lines) {
+                edits.add(parse(line, true, changes, names));
+            }
+            publish(new Tables(), edits);
+            loaded(lines, names);
+        } catch (Exception e) {
+            System.err.println("Config error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Re-reads the config file and applies only the lines that were added or
+     * removed since the last load. If any changed line is invalid, nothing is
+     * applied and the next reload tries all of them again. Callers must hold the
+     * lock that guards the device's live tables, since routing tables are
+     * updated in place.
+     */
+    public synchronized ConfigChanges reload() {
+        ConfigChanges changes = new ConfigChanges();
+        try {
+            Set<String> lines = readLines(configFile);
+            List<Consumer<Tables>> edits = new ArrayList<>();
+            Map<String, List<Integer>> names = new HashMap<>(lineNames);
+            for (String line : loadedLines) {
+                if (!lines.contains(line)) {
+                    edits.add(parse(line, false, changes, null));
+                    names.remove(line);
+                }
+            }
+            for (String line : lines) {
+                if (!loadedLines.contains(line)) {
+                    edits.add(parse(line, true, changes, names));
+                }
+            }
+            publish(tables.copy(), edits);
+            loaded(lines, names);
+        } catch (Exception e) {
+            System.err.println("Config reload error: " + e.getMessage());
+            return new ConfigChanges();
+        }
+        return changes;
+    }
+
+    /**
+     * Applies the parsed lines to a private version of the tables and then
+     * makes it the current one. The edits cannot fail, so nothing is half applied.
+     */
+    private void publish(Tables next, List<Consumer<Tables>> edits) {
+        for (Consumer<Tables> edit : edits) {
+            edit.accept(next);
+        }
+        next.routers = new boolean[symbols.size()];
+        for (int device = 0; device < next.routers.length; device++) {
+            next.routers[device] = symbols.name(device).startsWith("R");
+        }
+        tables = next;
+    }
+
+    /**
+     * Records a successful load and rekeys the wire symbols for it. Keys depend
+     * only on the lines now in the file, so devices that loaded the same config
+     * in different steps still agree on them.
+     */
+    private void loaded(Set<String> lines, Map<String, List<Integer>> names) {
+        loadedLines = lines;
+        lineNames = names;
+
+        CRC32 crc = new CRC32();
+        for (String line : lines) {
+            crc.update(line.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        fingerprint = crc.getValue();
+
+        Set<Integer> configNames = new HashSet<>();
+        for (List<Integer> lineIds : names.values()) {
+            configNames.addAll(lineIds);
+        }
+        symbols.assignWireKeys(fingerprint, configNames.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    public File getConfigFile() {
+        return configFile;
+    }
+
+    /**
+     * A checksum of the currently loaded config lines, used to reject
+     * snapshots, traces and frames from a different config
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Reads the config into section-qualified lines ("SECTION<tab>line"), so the
+     * same text under different sections or router tables stays distinct
+     */
+    private static Set<String> readLines(File configFile) throws Exception {
+        Set<String> lines = new LinkedHashSet<>();
         try (FileInputStream fis = new FileInputStream(configFile)) {
             Scanner scanner = new Scanner(fis);
             String currentSection = "";
@@ -28,11 +187,7 @@ public class ConfigParser {
                 if (line.isEmpty()) continue;
 
                 if (line.matches("^[A-Za-z0-9]+\\s+\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}:\\d+$")) {
-                    String[] parts = line.split("\\s+");
-                    String[] addr = parts[1].split(":");
-                    InetAddress ip = InetAddress.getByName(addr[0]);
-                    int port = Integer.parseInt(addr[1]);
-                    devices.put(parts[0], new VirtualPort(ip, port));
+                    lines.add("DEVICE\t" + line);
                     continue;
                 }
 
@@ -40,76 +195,285 @@ public class ConfigParser {
                     currentSection = "LINKS";
                 } else if (line.equals("ADDRESS RESOLUTION")) {
                     currentSection = "ADDRESS";
-                } else if (line.startsWith("R1 TABLE") || line.startsWith("R2 TABLE") ||
-                        line.startsWith("R3 TABLE") || line.startsWith("R4 TABLE") ||
-                        line.startsWith("R5 TABLE") || line.startsWith("R6 TABLE")) {
-                    currentSection = "ROUTING";
-                    currentRouter = line.split(" ")[0];
-                    routingTables.putIfAbsent(currentRouter, new RoutingTable());
+                } else if (line.equals("ROUTING TABLES") || line.equals("DEVICES")) {
+                    currentSection = "";
+                } else if (line.matches("^[A-Za-z0-9]+ TABLE$")) {
+                    currentSection = "ROUTING " + line.split(" ")[0];
                 } else if (line.equals("DEFAULT GATEWAY")) {
                     currentSection = "DEFAULT_GATEWAY";
+                } else if (line.equals("ROUTING MODE")) {
+                    currentSection = "MODE";
+                } else if (!currentSection.isEmpty()) {
+                    lines.add(currentSection + "\t" + line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Parses and validates one added or removed line and returns the edit that
+     * applies it. Only parsing can fail; the returned edit only stores values.
+     * The names an added line mentions are recorded under it in lineNames.
+     */
+    private Consumer<Tables> parse(String qualifiedLine, boolean add, ConfigChanges changes,
+                                   Map<String, List<Integer>> lineNames) throws Exception {
+        List<Integer> names = new ArrayList<>();
+        if (lineNames != null) lineNames.put(qualifiedLine, names);
+        int tab = qualifiedLine.indexOf('\t');
+        String section = qualifiedLine.substring(0, tab);
+        String line = qualifiedLine.substring(tab + 1);
+
+        if (section.equals("DEVICE")) {
+            String[] parts = line.split("\\s+");
+            String[] addr = parts[1].split(":");
+            InetAddress ip = InetAddress.getByName(addr[0]);
+            int port = Integer.parseInt(addr[1]);
+            int device = intern(names, parts[0]);
+            return next -> {
+                // Only clear the entry if it is still the one the removed line set
+                if (add) {
+                    next.devices = put(next.devices, device, new VirtualPort(ip, port));
+                } else if (!sameAddress(next.devices, device, ip, port)) {
+                    next.devices = put(next.devices, device, null);
+                }
+                changes.recordDevice(device);
+            };
+        }
+
+        if (section.startsWith("ROUTING ")) {
+            int router = intern(names, section.substring("ROUTING ".length()));
+            String[] routeParts = line.split("\\s+");
+            if (routeParts.length < 3) {
+                return next -> ensureRoutingTable(next, router);
+            }
+            int subnet = intern(names, routeParts[0]);
+            int nextHop = intern(names, routeParts[1]);
+            int exitPort = intern(names, routeParts[2]);
+            return next -> {
+                RoutingTable table = ensureRoutingTable(next, router);
+                if (add) {
+                    table.addEntry(subnet, nextHop, exitPort, 1);
                 } else {
-                    switch (currentSection) {
-                        case "LINKS":
-                            String[] linkedDevices = line.split("-");
-                            if (linkedDevices.length >= 2) {
-                                links.computeIfAbsent(linkedDevices[0], k -> new ArrayList<>()).add(linkedDevices[1]);
-                                links.computeIfAbsent(linkedDevices[1], k -> new ArrayList<>()).add(linkedDevices[0]);
-                            }
-                            break;
-                        case "ADDRESS":
-                            String[] mapping = line.split(" ");
-                            if (mapping.length >= 2) {
-                                ipToMac.put(mapping[0], mapping[1]);
-                                macToIp.put(mapping[1], mapping[0]);
-                            }
-                            break;
-                        case "ROUTING":
-                            if (currentRouter.isEmpty()) continue;
-                            String[] routeParts = line.split("\\s+");
-                            if (routeParts.length >= 3) {
-                                String subnet = routeParts[0];
-                                String nextHop = routeParts[1];
-                                String exitPort = routeParts[2];
-                                routingTables.get(currentRouter).addEntry(subnet, nextHop, exitPort, 1);
-                            }
-                            break;
-                        case "DEFAULT_GATEWAY":
-                            String[] gatewayParts = line.split(" ");
-                            if (gatewayParts.length >= 2) {
-                                defaultGateways.put(gatewayParts[0], gatewayParts[1]);
-                            }
-                            break;
-                    }
+                    table.removeEntry(subnet, nextHop, exitPort);
                 }
+                changes.recordRoute(router, subnet);
+            };
+        }
+
+        switch (section) {
+            case "LINKS": {
+                String[] linkParts = line.split("\\s+");
+                String[] linkedDevices = linkParts[0].split("-");
+                if (linkedDevices.length < 2) break;
+                int a = intern(names, linkedDevices[0]);
+                int b = intern(names, linkedDevices[1]);
+                LinkProfile profile = add ? LinkProfile.parse(linkParts, 1) : null;
+                return next -> {
+                    if (add) {
+                        addLink(next, a, b, profile);
+                        addLink(next, b, a, profile);
+                    } else {
+                        removeLink(next, a, b);
+                        removeLink(next, b, a);
+                    }
+                    changes.recordLink(a, b);
+                };
             }
-        } catch (Exception e) {
-            System.err.println("Config error: " + e.getMessage());
-            e.printStackTrace();
+            case "ADDRESS": {
+                String[] mapping = line.split(" ");
+                if (mapping.length < 2) break;
+                int ip = intern(names, mapping[0]);
+                int mac = intern(names, mapping[1]);
+                return next -> {
+                    if (add) {
+                        next.ipToMac = put(next.ipToMac, ip, mac);
+                        next.macToIp = put(next.macToIp, mac, ip);
+                    } else {
+                        if (get(next.ipToMac, ip) == mac) next.ipToMac = put(next.ipToMac, ip, -1);
+                        if (get(next.macToIp, mac) == ip) next.macToIp = put(next.macToIp, mac, -1);
+                    }
+                    changes.recordOther();
+                };
+            }
+            case "DEFAULT_GATEWAY": {
+                String[] gatewayParts = line.split(" ");
+                if (gatewayParts.length < 2) break;
+                int host = intern(names, gatewayParts[0]);
+                int gateway = intern(names, gatewayParts[1]);
+                return next -> {
+                    if (add) {
+                        next.defaultGateways = put(next.defaultGateways, host, gateway);
+                    } else if (get(next.defaultGateways, host) == gateway) {
+                        next.defaultGateways = put(next.defaultGateways, host, -1);
+                    }
+                    changes.recordOther();
+                };
+            }
+            case "MODE":
+                if (!line.equals("LINK STATE") && !line.equals("DISTANCE VECTOR")) {
+                    throw new IllegalArgumentException("Unknown routing mode: " + line);
+                }
+                return next -> {
+                    if (line.equals("LINK STATE")) next.linkStateRouting = add;
+                    changes.recordOther();
+                };
+        }
+        return next -> { };
+    }
+
+    private int intern(List<Integer> names, String name) {
+        int id = symbols.intern(name);
+        names.add(id);
+        if (symbols.subnetOf(id) != id) names.add(symbols.subnetOf(id));
+        return id;
+    }
+
+    private static boolean sameAddress(VirtualPort[] devices, int device, InetAddress ip, int port) {
+        VirtualPort current = device < devices.length ? devices[device] : null;
+        return current != null && current.port == port && current.ip.equals(ip);
+    }
+
+    private RoutingTable ensureRoutingTable(Tables next, int router) {
+        if (router >= next.routingTables.length || next.routingTables[router] == null) {
+            next.routingTables = put(next.routingTables, router, new RoutingTable(symbols));
+        }
+        return next.routingTables[router];
+    }
+
+    private static void addLink(Tables next, int from, int to, LinkProfile profile) {
+        Adjacency current = adjacencyOf(next.links, from);
+        int length = current.neighbors.length;
+        int[] neighbors = Arrays.copyOf(current.neighbors, length + 1);
+        neighbors[length] = to;
+        LinkProfile[] profiles = Arrays.copyOf(current.profiles, length + 1);
+        profiles[length] = profile;
+        next.links = put(next.links, from, new Adjacency(neighbors, profiles));
+    }
+
+    private static void removeLink(Tables next, int from, int to) {
+        Adjacency current = adjacencyOf(next.links, from);
+        int index = -1;
+        for (int i = 0; i < current.neighbors.length; i++) {
+            if (current.neighbors[i] == to) index = i;
+        }
+        if (index < 0) return;
+        int[] neighbors = new int[current.neighbors.length - 1];
+        System.arraycopy(current.neighbors, 0, neighbors, 0, index);
+        System.arraycopy(current.neighbors, index + 1, neighbors, index, neighbors.length - index);
+        LinkProfile[] profiles = new LinkProfile[neighbors.length];
+        System.arraycopy(current.profiles, 0, profiles, 0, index);
+        System.arraycopy(current.profiles, index + 1, profiles, index, profiles.length - index);
+        next.links = put(next.links, from, new Adjacency(neighbors, profiles));
+    }
+
+    /**
+     * Stores a value into a table that is still private to a load or reload,
+     * growing it if needed
+     */
+    private static int[] put(int[] table, int index, int value) {
+        if (index >= table.length) {
+            int oldLength = table.length;
+            table = Arrays.copyOf(table, Math.max(index + 1, oldLength * 2));
+            Arrays.fill(table, oldLength, table.length, -1);
         }
+        table[index] = value;
+        return table;
     }
 
-    public String getVirtualIp(String mac) {
-        return macToIp.get(mac);
+    private static <T> T[] put(T[] table, int index, T value) {
+        if (index >= table.length) {
+            table = Arrays.copyOf(table, Math.max(index + 1, table.length * 2));
+        }
+        table[index] = value;
+        return table;
+    }
+
+    private static int get(int[] table, int index) {
+        return index >= 0 && index < table.length ? table[index] : -1;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public int getVirtualIp(int mac) {
+        return get(tables.macToIp, mac);
     }
 
-    public String getDefaultGateway(String host) {
-        return defaultGateways.get(host);
+    public int getDefaultGateway(int host) {
+        return get(tables.defaultGateways, host);
     }
 
     public VirtualPort getDevicePort(String device) {
-        return devices.get(device);
+        return getDevicePort(symbols.lookup(device));
+    }
+
+    public VirtualPort getDevicePort(int device) {
+        VirtualPort[] current = tables.devices;
+        return device >= 0 && device < current.length ? current[device] : null;
+    }
+
+    public int getMacForIp(int ip) {
+        return get(tables.ipToMac, ip);
+    }
+
+    /**
+     * Returns every device that has a default gateway configured
+     */
+    public int[] getHosts() {
+        int[] gateways = tables.defaultGateways;
+        int[] hosts = new int[gateways.length];
+        int count = 0;
+        for (int device = 0; device < gateways.length; device++) {
+            if (gateways[device] >= 0) hosts[count++] = device;
+        }
+        return Arrays.copyOf(hosts, count);
+    }
+
+    public int[] getNeighbors(int device) {
+        return getAdjacency(device).neighbors;
+    }
+
+    private Adjacency getAdjacency(int device) {
+        return adjacencyOf(tables.links, device);
+    }
+
+    private static Adjacency adjacencyOf(Adjacency[] links, int device) {
+        return device >= 0 && device < links.length && links[device] != null ? links[device] : NO_LINKS;
+    }
+
+    /**
+     * Returns the impairments configured on the link between two devices,
+     * or null if the link has no options or does not exist
+     */
+    public LinkProfile getLinkProfile(int from, int to) {
+        Adjacency adjacency = getAdjacency(from);
+        for (int i = 0; i < adjacency.neighbors.length; i++) {
+            if (adjacency.neighbors[i] == to) return adjacency.profiles[i];
+        }
+        return null;
+    }
+
+    public boolean isRouter(int device) {
+        boolean[] current = tables.routers;
+        return device >= 0 && device < current.length && current[device];
     }
 
-    public static String getMacForIp(String ip) {
-        return ipToMac.get(ip);
+    public boolean isSwitch(int device) {
+        return symbols.name(device).startsWith("S");
     }
 
-    public List<String> getNeighbors(String device) {
-        return links.getOrDefault(device, new ArrayList<>());
+    /**
+     * True if the config selects link-state routing ("ROUTING MODE" followed by
+     * "LINK STATE"); distance vector is the default
+     */
+    public boolean isLinkStateRouting() {
+        return tables.linkStateRouting;
     }
 
-    public RoutingTable getRoutingTable(String router) {
-        return routingTables.get(router);
+    public RoutingTable getRoutingTable(int router) {
+        RoutingTable[] current = tables.routingTables;
+        return router >= 0 && router < current.length ? current[router] : null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,68 @@
+import java.io.File;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the config file's directory on a daemon thread and runs a
+ * callback whenever the config file is modified, so devices can
+ * reconcile their live tables without restarting
+ */
+
+public class ConfigWatcher {
+    private static final long SETTLE_MILLIS = 200;
+
+    private final File configFile;
+    private final Runnable onChange;
+
+    public ConfigWatcher(File configFile, Runnable onChange) {
+        this.configFile = configFile.getAbsoluteFile();
+        this.onChange = onChange;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::watch, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        Path directory = configFile.getParentFile().toPath();
+        Path fileName = configFile.toPath().getFileName();
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_CREATE);
+            System.out.println("[CONFIG] Watching " + configFile + " for changes");
+
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+
+                if (changed) {
+                    // Editors often write in several steps, so let the file settle and drain the extra events
+                    TimeUnit.MILLISECONDS.sleep(SETTLE_MILLIS);
+                    WatchKey extra;
+                    while ((extra = watcher.poll()) != null) {
+                        extra.pollEvents();
+                        extra.reset();
+                    }
+                    try {
+                        onChange.run();
+                    } catch (Exception e) {
+                        System.err.println("Config reload failed: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Config watcher error: " + e.getMessage());
+        }
+    }
+}
@@ -1,51 +1,77 @@
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * DistanceVector implements the Distance Vector Routing protocol, maintaining
- * a map of subnets and updating the vector using the Bellman-Ford equation
+ * the distance to each subnet (indexed by its symbol ID) and updating the
+ * vector using the Bellman-Ford equation
  */
 
 public class DistanceVector {
-    final HashMap<String, Integer> map;
+    public static final int INFINITY = 16;
 
-    public DistanceVector() {
-        this.map = new HashMap<>();
+    private final SymbolTable symbols;
+    private int[] distances;
+    private int count;
+
+    public DistanceVector(SymbolTable symbols) {
+        this.symbols = symbols;
+        this.distances = new int[Math.max(16, symbols.size())];
     }
 
-    public void addEntry(String subnet, int distance) {
-        map.put(subnet, distance);
+    public SymbolTable getSymbols() {
+        return symbols;
     }
 
-    public int getEntry(String subnet) {
-        return this.map.get(subnet);
+    public void addEntry(int subnetId, int distance) {
+        if (subnetId >= distances.length) {
+            distances = Arrays.copyOf(distances, Math.max(subnetId + 1, distances.length * 2));
+        }
+        if (distances[subnetId] == 0) {
+            count++;
+        }
+        distances[subnetId] = distance;
     }
 
-    public String[] updateEntries(DistanceVector neighbor) {
-        ArrayList<String> updatedEntries = new ArrayList<>();
+    public void removeEntry(int subnetId) {
+        if (hasEntry(subnetId)) {
+            distances[subnetId] = 0;
+            count--;
+        }
+    }
 
-        for (String subnet : neighbor.map.keySet()) {
-            int value = neighbor.map.get(subnet);
-            if (!map.containsKey(subnet) || value + 1 < map.get(subnet)) {
-                this.map.put(subnet, value + 1);
-                updatedEntries.add(subnet);
-            }
+    public boolean hasEntry(int subnetId) {
+        return subnetId >= 0 && subnetId < distances.length && distances[subnetId] != 0;
+    }
+
+    public int getEntry(int subnetId) {
+        if (!hasEntry(subnetId)) {
+            throw new IllegalArgumentException("No entry for subnet " + symbols.name(subnetId));
         }
-        return updatedEntries.toArray(String[]::new);
+        return distances[subnetId];
+    }
+
+    public int size() {
+        return count;
     }
 
-    public String[] getKnownSubnets() {
-        return map.keySet().toArray(String[]::new);
+    public int[] getKnownSubnetIds() {
+        int[] ids = new int[count];
+        int index = 0;
+        for (int subnetId = 0; subnetId < distances.length; subnetId++) {
+            if (distances[subnetId] != 0) {
+                ids[index++] = subnetId;
+            }
+        }
+        return ids;
     }
 
     public String toString() {
         StringBuilder result = new StringBuilder();
         result.append("Distance Vector:\n");
-        for (String subnet: map.keySet()) {
-            int distance = getEntry(subnet);
-            result.append(String.format("%s: %d\n", subnet, distance));
+        for (int subnetId : getKnownSubnetIds()) {
+            result.append(String.format("%s: %d\n", symbols.name(subnetId), distances[subnetId]));
         }
 
         return result.toString();
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,8 @@ import java.nio.ByteBuffer;
 /**
  * DistanceVectorFrame creates a special frame for distance vector routing, wrapping
  * a standard frame and serialize/deserialize DistanceVector objects into the frame's payload.
+ * Entries are written as varint (subnet ID, distance) pairs using the config's wire keys.
+ * An update frame carries only changed subnets, with distance 0 marking a withdrawn route.
  */
 
 public class DistanceVectorFrame {
@@ -12,46 +14,88 @@ public class DistanceVectorFrame {
         this.frame = frame;
     }
 
-    public void addDistanceVector(DistanceVector dv) {
-        String[] knownSubnets = dv.getKnownSubnets();
+    public static byte[] encode(DistanceVector dv) {
+        return encode(dv, dv.getKnownSubnetIds(), Frame.FrameType.DISTANCE_VECTOR);
+    }
 
-        int length = 0;
-        for (String subnet : knownSubnets) {
-            length += subnet.getBytes().length;
-        }
+    public static byte[] encodeUpdate(DistanceVector dv, int[] changedSubnets) {
+        return encode(dv, changedSubnets, Frame.FrameType.DISTANCE_VECTOR_UPDATE);
+    }
 
-        length += Integer.BYTES * 2 * knownSubnets.length + 1;
+    private static byte[] encode(DistanceVector dv, int[] subnets, Frame.FrameType type) {
+        SymbolTable symbols = dv.getSymbols();
+
+        int length = 1 + Varint.varintSize(subnets.length);
+        for (int subnetId : subnets) {
+            length += symbols.symbolSize(subnetId) + Varint.varintSize(distanceOf(dv, subnetId));
+        }
 
         ByteBuffer buffer = ByteBuffer.allocate(length);
 
-        buffer.put((byte) Frame.FrameType.DISTANCE_VECTOR.ordinal());
+        buffer.put((byte) type.ordinal());
+        Varint.putVarint(buffer, subnets.length);
+
+        for (int subnetId : subnets) {
+            symbols.writeSymbol(buffer, subnetId);
+            Varint.putVarint(buffer, distanceOf(dv, subnetId));
+        }
+
+        return buffer.array();
+    }
+
+    private static int distanceOf(DistanceVector dv, int subnetId) {
+        return dv.hasEntry(subnetId) ? dv.getEntry(subnetId) : 0;
+    }
 
-        for (String subnet : knownSubnets) {
-            buffer.putInt(subnet.getBytes().length);
-            buffer.put(subnet.getBytes());
-            buffer.putInt(dv.getEntry(subnet));
+    public boolean isUpdate() {
+        return frame.data.length > 0 && frame.data[0] == Frame.FrameType.DISTANCE_VECTOR_UPDATE.ordinal();
+    }
+
+    /**
+     * Merges the entries of this frame into an existing vector, removing
+     * withdrawn subnets, and returns the IDs of the subnets it carried
+     */
+    public int[] applyTo(DistanceVector dv) {
+        SymbolTable.WireKeys keys = frame.keys;
+        ByteBuffer buffer = ByteBuffer.wrap(frame.data);
+
+        buffer.get();
+
+        // Decode every entry before changing the vector, so a bad frame leaves it untouched
+        int entries = Varint.getVarint(buffer);
+        int[] subnets = new int[entries];
+        int[] distances = new int[entries];
+        for (int i = 0; i < entries; i++) {
+            subnets[i] = keys.readSymbol(buffer);
+            distances[i] = Varint.getVarint(buffer);
         }
 
-        this.frame.data = buffer.array();
+        for (int i = 0; i < entries; i++) {
+            if (distances[i] == 0) {
+                dv.removeEntry(subnets[i]);
+            } else {
+                dv.addEntry(subnets[i], distances[i]);
+            }
+        }
+        return subnets;
     }
 
     public DistanceVector getDistanceVector() {
-        DistanceVector dv = new DistanceVector();
+        SymbolTable.WireKeys keys = frame.keys;
+        DistanceVector dv = new DistanceVector(frame.symbols);
 
         ByteBuffer buffer = ByteBuffer.wrap(frame.data);
 
         buffer.get();
 
-        while (buffer.hasRemaining()) {
-            int subnetLength = buffer.getInt();
-            byte[] subnetBytes = new byte[subnetLength];
-            buffer.get(subnetBytes);
-            String subnet = new String(subnetBytes);
-            int distance = buffer.getInt();
+        int entries = Varint.getVarint(buffer);
+        for (int i = 0; i < entries; i++) {
+            int subnetId = keys.readSymbol(buffer);
+            int distance = Varint.getVarint(buffer);
 
-            dv.addEntry(subnet, distance);
+            dv.addEntry(subnetId, distance);
         }
 
         return dv;
     }
-}
\ No newline at end of file
+}
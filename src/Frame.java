@@ -1,27 +1,37 @@
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 /**
  * A virtual network frame containing a source and
- * destination MAC and IP addresses and a message
+ * destination MAC and IP addresses and a message.
+ * Addresses are symbol IDs and are written to the wire as varints. Each frame
+ * carries the fingerprint of the config its keys came from, and a frame from a
+ * device on a different config is rejected.
  */
 
 public class Frame {
-    public String sourceMac;
-    public String destMac;
-    public String sourceIp;
-    public String destIp;
+    public static final int MAX_FRAME_SIZE = 65507;
+
+    public final SymbolTable symbols;
+    public SymbolTable.WireKeys keys;
+    public int sourceMac;
+    public int destMac;
+    public int sourceIp;
+    public int destIp;
     public byte[] data;
     public int type;
 
     public enum FrameType {
         DISTANCE_VECTOR,
-        USER_MESSAGE
+        USER_MESSAGE,
+        DISTANCE_VECTOR_UPDATE,
+        LINK_STATE
     }
 
-    public Frame(String sMAC, String dMAC, String sIP, String dIP, byte[] data, int type) {
+    public Frame(SymbolTable symbols, int sMAC, int dMAC, int sIP, int dIP, byte[] data, int type) {
+        this.symbols = symbols;
+        this.keys = symbols.wireKeys();
         this.sourceMac = sMAC;
         this.destMac = dMAC;
         this.sourceIp = sIP;
@@ -30,53 +40,64 @@ public class Frame {
         this.type = type;
     }
 
-    public Frame() {
-        this("", "", "", "", new byte[0], 1);
+    public Frame(SymbolTable symbols) {
+        this(symbols, -1, -1, -1, -1, new byte[0], 1);
     }
 
     public void readPacket(DatagramPacket packet) {
-        ByteBuffer buffer = ByteBuffer.wrap(packet.getData());
+        read(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
+
+        System.out.printf("[FRAME] Deserialized frame: %s → %s (%s → %s) Type: %s\n",
+                symbols.name(sourceMac), symbols.name(destMac), symbols.name(sourceIp),
+                symbols.name(destIp), type == 0 ? "ROUTING" : "USER");
+    }
 
+    public void read(ByteBuffer buffer) {
+        this.keys = symbols.wireKeys();
         this.type = buffer.get();
-        this.sourceMac = readString(buffer);
-        this.destMac = readString(buffer);
-        this.sourceIp = readString(buffer);
-        this.destIp = readString(buffer);
+        int fingerprint = buffer.getInt();
+        if (fingerprint != keys.fingerprint) {
+            throw new IllegalArgumentException(String.format(
+                    "Frame from a different config (%08x, expected %08x)", fingerprint, keys.fingerprint));
+        }
+        this.sourceMac = keys.readSymbol(buffer);
+        this.destMac = keys.readSymbol(buffer);
+        this.sourceIp = keys.readSymbol(buffer);
+        this.destIp = keys.readSymbol(buffer);
 
-        int dataLength = buffer.getInt();
+        int dataLength = Varint.getVarint(buffer);
         this.data = new byte[dataLength];
         buffer.get(this.data);
-
-        System.out.printf("[FRAME] Deserialized frame: %s → %s (%s → %s) Type: %s\n",
-                sourceMac, destMac, sourceIp, destIp, type == 0 ? "ROUTING" : "USER");
     }
 
-    private String readString(ByteBuffer buffer) {
-        int length = buffer.getInt();
-        byte[] bytes = new byte[length];
-        buffer.get(bytes);
-        return new String(bytes);
+    public DatagramPacket writePacket(InetAddress destIP, int destPort) {
+        byte[] payload = toBytes();
+        System.out.printf("[FRAME] Serialized frame: %s → %s (%s → %s) Type: %s\n",
+                symbols.name(sourceMac), symbols.name(destMac), symbols.name(sourceIp),
+                symbols.name(destIp), type == 0 ? "ROUTING" : "USER");
+        return new DatagramPacket(payload, payload.length, destIP, destPort);
     }
 
-    public DatagramPacket writePacket(InetAddress destIP, int destPort) {
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
+    public byte[] toBytes() {
+        SymbolTable.WireKeys keys = symbols.wireKeys();
+        int length = 1 + 4 + keys.symbolSize(sourceMac) + keys.symbolSize(destMac)
+                + keys.symbolSize(sourceIp) + keys.symbolSize(destIp)
+                + Varint.varintSize(data.length) + data.length;
+        if (length > MAX_FRAME_SIZE) {
+            throw new IllegalStateException("Frame of " + length + " bytes exceeds " + MAX_FRAME_SIZE);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
 
         buffer.put((byte)type);
-        writeString(buffer, sourceMac);
-        writeString(buffer, destMac);
-        writeString(buffer, sourceIp);
-        writeString(buffer, destIp);
-        buffer.putInt(data.length);
+        buffer.putInt(keys.fingerprint);
+        keys.writeSymbol(buffer, sourceMac);
+        keys.writeSymbol(buffer, destMac);
+        keys.writeSymbol(buffer, sourceIp);
+        keys.writeSymbol(buffer, destIp);
+        Varint.putVarint(buffer, data.length);
         buffer.put(data);
 
-        byte[] payload = Arrays.copyOf(buffer.array(), buffer.position());
-        System.out.printf("[FRAME] Serialized frame: %s → %s (%s → %s) Type: %s\n",
-                sourceMac, destMac, sourceIp, destIp, type == 0 ? "ROUTING" : "USER");
-        return new DatagramPacket(payload, payload.length, destIP, destPort);
-    }
-
-    private void writeString(ByteBuffer buffer, String value) {
-        buffer.putInt(value.getBytes().length);
-        buffer.put(value.getBytes());
+        return buffer.array();
     }
-}
\ No newline at end of file
+}
@@ -1,21 +1,59 @@
 import java.io.File;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * A virtual host in the network that sends and
- * receives frames to/from other hosts via switches
+ * receives frames to/from other hosts via switches.
+ * Each instance owns its own socket, so many hosts can run in one JVM.
+ * Sends are queued and written to the switch in batches by a sender thread.
  */
 
-public class Host {
-    private static String sourceMac;
-    private static String sourceIp;
-    private static String defaultGateway;
-    static VirtualPort switchPort;
+public class Host implements AutoCloseable {
+    public static final int QUEUE_CAPACITY = 4096;
+    public static final int MAX_BATCH = 64;
+    private static final long POLL_MILLIS = 100;
+
+    private static class Outgoing {
+        final Frame frame;
+        final CompletableFuture<Void> sent = new CompletableFuture<>();
+
+        Outgoing(Frame frame) {
+            this.frame = frame;
+        }
+    }
+
+    private final ConfigParser parser;
+    private final SymbolTable symbols;
+    private final String hostId;
+    private final int sourceMac;
+    private volatile int sourceIp;
+    private volatile int defaultGateway;
+    private volatile int switchId;
+    private volatile VirtualPort switchPort;
+    private final DatagramSocket socket;
+    private final TraceRecorder recorder;
+    private final LinkEmulator links;
+    private final BlockingQueue<Outgoing> outgoing = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<Consumer<Frame>> listeners = new CopyOnWriteArrayList<>();
+    private final SubmissionPublisher<Frame> publisher = new SubmissionPublisher<>();
+    private final Thread sender;
+    private final Thread receiver;
+    private volatile boolean closed;
 
     public static void main(String[] args) {
         if (args.length < 2) {
@@ -30,129 +68,334 @@ public class Host {
         }
 
         ConfigParser parser = new ConfigParser(configFile);
-        sourceMac = args[1];
+        String hostId = args[1];
+
+        Host host;
+        try {
+            host = open(parser, hostId);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
+        } catch (Exception e) {
+            System.err.println("Host error: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+
+        System.out.printf("Host %s (%s) running on port %d\n",
+                hostId, host.symbols.name(host.sourceIp), host.socket.getLocalPort());
+        System.out.println("[HOST] Sent initialization message to the switch.");
+
+        new ConfigWatcher(configFile, () -> {
+            ConfigChanges changes = parser.reload();
+            if (changes.isEmpty()) return;
+            System.out.printf("\n[HOST] Config reloaded (%d changed lines)\n", changes.size());
+            host.refresh();
+            if (changes.deviceChanged(host.sourceMac)) {
+                System.err.println("[HOST] This host's own port changed in the config; restart to rebind it");
+            }
+        }).start();
+
+        host.onReceive(frame -> System.out.printf("\n[Received from %s (%s)]\n%s\n",
+                host.symbols.name(frame.sourceIp), host.symbols.name(frame.sourceMac), new String(frame.data)));
+
+        sendPacketsInteractively(host);
+    }
+
+    /**
+     * Binds the host's configured port and announces it to its switch.
+     * Throws IllegalArgumentException if the host is not fully described in the config.
+     */
+    public static Host open(ConfigParser parser, String hostId) throws SocketException {
+        return new Host(parser, hostId);
+    }
+
+    private Host(ConfigParser parser, String hostId) throws SocketException {
+        this.parser = parser;
+        this.symbols = parser.getSymbols();
+        this.hostId = hostId;
+        this.sourceMac = symbols.lookup(hostId);
 
         VirtualPort hostPort = parser.getDevicePort(sourceMac);
         if (hostPort == null) {
-            System.err.println("Error: No IP/port configured for host " + sourceMac);
-            System.exit(1);
+            throw new IllegalArgumentException("No IP/port configured for host " + hostId);
         }
 
         sourceIp = parser.getVirtualIp(sourceMac);
-        if (sourceIp == null) {
-            System.err.println("Error: No virtual IP found for host " + sourceMac);
-            System.exit(1);
+        if (sourceIp < 0) {
+            throw new IllegalArgumentException("No virtual IP found for host " + hostId);
         }
 
         defaultGateway = parser.getDefaultGateway(sourceMac);
-        if (defaultGateway == null) {
-            System.err.println("Error: No default gateway found for host " + sourceMac);
-            System.exit(1);
+        if (defaultGateway < 0) {
+            throw new IllegalArgumentException("No default gateway found for host " + hostId);
         }
 
-        List<String> neighbors = parser.getNeighbors(sourceMac);
-        String switchId = neighbors.stream()
-                .filter(neighbor -> neighbor.startsWith("S"))
-                .findFirst()
-                .orElse(null);
-
-        if (switchId == null) {
-            System.err.println("Error: No switch found for host " + sourceMac);
-            System.exit(1);
+        switchId = findSwitch();
+        if (switchId < 0) {
+            throw new IllegalArgumentException("No switch found for host " + hostId);
         }
 
         switchPort = parser.getDevicePort(switchId);
         if (switchPort == null) {
-            System.err.println("Error: No switch port found for switch " + switchId);
-            System.exit(1);
+            throw new IllegalArgumentException("No switch port found for switch " + symbols.name(switchId));
         }
 
-        try (DatagramSocket socket = new DatagramSocket(hostPort.port)) {
-            System.out.printf("Host %s (%s) running on port %d\n",
-                    sourceMac, sourceIp, hostPort.port);
+        recorder = TraceRecorder.forDevice(hostId, parser.getFingerprint());
+        links = new LinkEmulator(parser, sourceMac);
+        socket = new DatagramSocket(hostPort.port);
 
-            String initialMessage = "Host " + sourceMac + " has connected";
-            Frame initialFrame = new Frame(sourceMac, switchId, sourceIp, "Initialization",
-                    initialMessage.getBytes(), 1);
-            DatagramPacket initPacket = initialFrame.writePacket(switchPort.ip, switchPort.port);
-            socket.send(initPacket);
-            System.out.println("[HOST] Sent initialization message to the switch.");
+        sender = new Thread(this::sendLoop, "host-send-" + hostId);
+        receiver = new Thread(this::receiveLoop, "host-receive-" + hostId);
+        sender.start();
+        receiver.start();
 
-            ExecutorService executor = Executors.newFixedThreadPool(1);
-            executor.submit(() -> receivePackets(socket));
+        String initialMessage = "Host " + hostId + " has connected";
+        enqueue(new Frame(symbols, sourceMac, switchId, sourceIp, SymbolTable.INITIALIZATION,
+                initialMessage.getBytes(), 1));
+    }
 
-            sendPacketsInteractively(socket);
+    public String getHostId() {
+        return hostId;
+    }
 
-            executor.shutdown();
-        } catch (Exception e) {
-            System.err.println("Host error: " + e.getMessage());
-            e.printStackTrace();
+    public int getVirtualIp() {
+        return sourceIp;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    private int findSwitch() {
+        for (int neighbor : parser.getNeighbors(sourceMac)) {
+            if (parser.isSwitch(neighbor)) {
+                return neighbor;
+            }
         }
+        return -1;
     }
 
-    private static void sendPacketsInteractively(DatagramSocket socket) {
-        Scanner scanner = new Scanner(System.in);
-        while (true) {
-            try {
-                System.out.println("\nEnter destination virtual IP (e.g., net1.A, net3.C):");
-                String destIp = scanner.nextLine().trim();
+    /**
+     * Re-resolves this host's IP, default gateway and switch port after the
+     * shared parser was reloaded, and moves the trace on to a new file.
+     * One reload can be followed by a refresh of
+     * every host built on that parser.
+     */
+    public void refresh() {
+        int ip = parser.getVirtualIp(sourceMac);
+        if (ip >= 0) sourceIp = ip;
 
-                System.out.println("Enter message:");
-                String message = scanner.nextLine().trim();
+        int gateway = parser.getDefaultGateway(sourceMac);
+        if (gateway >= 0) defaultGateway = gateway;
 
-                String destMac;
-                if (isInSameSubnet(destIp)) {
-                    destMac = ConfigParser.getMacForIp(destIp);
-                } else {
-                    destMac = ConfigParser.getMacForIp(defaultGateway);
-                }
+        int switchDevice = findSwitch();
+        VirtualPort port = parser.getDevicePort(switchDevice);
+        if (port != null) {
+            switchId = switchDevice;
+            switchPort = port;
+        }
+        if (recorder != null) recorder.rotate(parser.getFingerprint());
+    }
 
-                if (destMac == null) {
-                    System.err.println("Error: Could not resolve MAC for " + destIp);
-                    continue;
-                }
+    /**
+     * Registers a callback for user frames addressed to this host.
+     * Callbacks run on the receive thread and should hand off slow work.
+     */
+    public void onReceive(Consumer<Frame> listener) {
+        listeners.add(listener);
+    }
 
-                Frame frame = new Frame(sourceMac, destMac, sourceIp, destIp,
-                        message.getBytes(), 1);
-                DatagramPacket packet = frame.writePacket(switchPort.ip, switchPort.port);
-                socket.send(packet);
-                System.out.println("Sent message to " + destIp);
-            } catch (Exception e) {
-                System.err.println("Failed to send packet: " + e.getMessage());
-            }
+    /**
+     * A stream of user frames addressed to this host. Subscribers that fall
+     * more than a buffer behind miss frames rather than stalling the receiver.
+     */
+    public Flow.Publisher<Frame> frames() {
+        return publisher;
+    }
+
+    public CompletableFuture<Void> send(String destIpName, byte[] data) {
+        int destIp = symbols.lookup(destIpName);
+        if (destIp < 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Unknown IP " + destIpName));
         }
+        return send(destIp, data);
     }
 
-    private static boolean isInSameSubnet(String destIp) {
-        String sourceSubnet = sourceIp.split("\\.")[0];
-        String destSubnet = destIp.split("\\.")[0];
-        return sourceSubnet.equals(destSubnet);
+    /**
+     * Queues a user frame for the sender thread. The future completes once the
+     * frame has been written to the switch, and fails if the destination cannot
+     * be resolved or the queue is full. It completes on the sender thread.
+     */
+    public CompletableFuture<Void> send(int destIp, byte[] data) {
+        int destMac;
+        if (isInSameSubnet(destIp)) {
+            destMac = parser.getMacForIp(destIp);
+        } else {
+            destMac = parser.getMacForIp(defaultGateway);
+        }
+
+        if (destMac < 0) {
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Could not resolve MAC for " + symbols.name(destIp)));
+        }
+        return enqueue(new Frame(symbols, sourceMac, destMac, sourceIp, destIp, data, 1));
     }
 
-    private static void receivePackets(DatagramSocket socket) {
-        byte[] buffer = new byte[1024];
-        while (true) {
+    /**
+     * Returns a future that completes once every frame queued before it has been sent
+     */
+    public CompletableFuture<Void> flush() {
+        return enqueue(null);
+    }
+
+    private CompletableFuture<Void> enqueue(Frame frame) {
+        Outgoing entry = new Outgoing(frame);
+        if (closed) {
+            entry.sent.completeExceptionally(new IllegalStateException("Host " + hostId + " is closed"));
+        } else if (!outgoing.offer(entry)) {
+            entry.sent.completeExceptionally(new IllegalStateException("Send queue full"));
+        } else if (closed && outgoing.remove(entry)) {
+            // close() ran between the check and the offer, and the sender will not take it
+            entry.sent.completeExceptionally(new IllegalStateException("Host " + hostId + " is closed"));
+        }
+        return entry.sent;
+    }
+
+    private boolean isInSameSubnet(int destIp) {
+        return symbols.subnetOf(sourceIp) == symbols.subnetOf(destIp);
+    }
+
+    /**
+     * Waits for the first queued frame, then drains whatever else queued up
+     * behind it and writes the batch with one reused packet
+     */
+    private void sendLoop() {
+        List<Outgoing> batch = new ArrayList<>(MAX_BATCH);
+        DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+        while (!closed || !outgoing.isEmpty()) {
+            try {
+                Outgoing first = outgoing.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                outgoing.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            int switchDevice = switchId;
+            VirtualPort port = switchPort;
+            for (Outgoing entry : batch) {
+                if (entry.frame == null) {
+                    entry.sent.complete(null);
+                    continue;
+                }
+                try {
+                    byte[] payload = entry.frame.toBytes();
+                    packet.setData(payload);
+                    packet.setAddress(port.ip);
+                    packet.setPort(port.port);
+                    links.send(socket, packet, switchDevice);
+                    if (recorder != null) recorder.record(TraceRecorder.SENT, packet);
+                    entry.sent.complete(null);
+                } catch (Exception e) {
+                    entry.sent.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[Frame.MAX_FRAME_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!closed) {
             try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                packet.setLength(buffer.length);
                 socket.receive(packet);
+                if (recorder != null) recorder.record(TraceRecorder.RECEIVED, packet);
 
-                Frame frame = new Frame();
-                frame.readPacket(packet);
+                Frame frame = new Frame(symbols);
+                frame.read(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
 
                 if (frame.type == 0) {
                     continue;
                 }
 
-                if (frame.destMac.equals(sourceMac) || frame.destIp.equals(sourceIp)) {
-                    System.out.printf("\n[Received from %s (%s)]\n%s\n",
-                            frame.sourceIp, frame.sourceMac, new String(frame.data));
-                } else {
-                    System.out.printf("Received frame for %s (%s) (ignoring)\n",
-                            frame.destMac, frame.destIp);
+                if (frame.destMac == sourceMac || frame.destIp == sourceIp) {
+                    deliver(frame);
                 }
             } catch (Exception e) {
-                System.err.println("Error receiving packet: " + e.getMessage());
+                if (!closed) {
+                    System.err.println("Error receiving packet: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void deliver(Frame frame) {
+        for (Consumer<Frame> listener : listeners) {
+            try {
+                listener.accept(frame);
+            } catch (RuntimeException e) {
+                System.err.println("Receive callback failed: " + e.getMessage());
+            }
+        }
+        publisher.offer(frame, (subscriber, dropped) -> false);
+    }
+
+    /**
+     * Sends everything already queued, then stops the host's threads, including
+     * the link emulator's and the trace flusher, and closes the socket and trace
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Outgoing entry;
+        while ((entry = outgoing.poll()) != null) {
+            entry.sent.completeExceptionally(new IllegalStateException("Host " + hostId + " is closed"));
+        }
+        socket.close();
+        if (Thread.currentThread() != receiver) {
+            try {
+                receiver.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        publisher.close();
+        links.close();
+        if (recorder != null) recorder.close();
+    }
+
+    private static void sendPacketsInteractively(Host host) {
+        Scanner scanner = new Scanner(System.in);
+        while (true) {
+            System.out.println("\nEnter destination virtual IP (e.g., net1.A, net3.C):");
+            if (!scanner.hasNextLine()) break;
+            String destIpName = scanner.nextLine().trim();
+
+            System.out.println("Enter message:");
+            if (!scanner.hasNextLine()) break;
+            String message = scanner.nextLine().trim();
+
+            try {
+                host.send(destIpName, message.getBytes()).join();
+                System.out.println("Sent message to " + destIpName);
+            } catch (CompletionException e) {
+                System.err.println("Failed to send packet: " + e.getCause().getMessage());
             }
         }
+        // Input is closed, but the receive thread keeps the host online
+        System.out.println("[HOST] Input closed; still receiving");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Applies the impairments configured on a device's outgoing links before a
+ * frame reaches the neighbor: random loss, a bandwidth-limited FIFO with a
+ * tail-drop queue, then propagation delay with jitter. Delayed frames wait on
+ * a timing wheel. Links without options are sent straight through.
+ * Set -Dlinks.seed to make the loss and jitter draws repeatable.
+ */
+
+public class LinkEmulator {
+    private static final long TICK_MICROS = 100;
+    private static final int WHEEL_SLOTS = 1 << 14;
+
+    private static class LinkState {
+        final LinkProfile profile;
+        final long[] departures;
+        int head;
+        int count;
+        long busyUntil;
+
+        LinkState(LinkProfile profile) {
+            this.profile = profile;
+            this.departures = new long[Math.max(1, profile.queueDepth)];
+        }
+    }
+
+    private final ConfigParser parser;
+    private final int device;
+    private final String deviceId;
+    private final SplittableRandom random;
+    private LinkState[] links = new LinkState[16];
+    private TimingWheel<DatagramPacket> wheel;
+    private Thread reportHook;
+    private long delayed;
+    private long lost;
+    private long queueDrops;
+
+    public LinkEmulator(ConfigParser parser, int device) {
+        this.parser = parser;
+        this.device = device;
+        this.deviceId = parser.getSymbols().name(device);
+        String seed = System.getProperty("links.seed");
+        this.random = seed != null ? new SplittableRandom(Long.parseLong(seed)) : new SplittableRandom();
+    }
+
+    /**
+     * Sends the packet to the neighbor over the link's impairments. The packet's
+     * data is copied if the frame is delayed, so callers may reuse it.
+     */
+    public void send(DatagramSocket socket, DatagramPacket packet, int neighbor) throws IOException {
+        LinkProfile profile = parser.getLinkProfile(device, neighbor);
+        if (profile == null) {
+            socket.send(packet);
+            return;
+        }
+
+        long arrival;
+        synchronized (this) {
+            if (wheel == null) {
+                wheel = new TimingWheel<>("links-" + deviceId, TICK_MICROS, WHEEL_SLOTS, delayedPacket -> {
+                    try {
+                        socket.send(delayedPacket);
+                    } catch (IOException e) {
+                        System.err.println("Delayed send failed: " + e.getMessage());
+                    }
+                });
+                reportHook = new Thread(() -> System.out.printf("[LINK %s] %s\n", deviceId, describe()));
+                Runtime.getRuntime().addShutdownHook(reportHook);
+            }
+
+            if (profile.lossRate > 0 && random.nextDouble() < profile.lossRate) {
+                lost++;
+                return;
+            }
+
+            LinkState link = stateFor(neighbor, profile);
+            long now = wheel.nowMicros();
+            while (link.count > 0 && link.departures[link.head] <= now) {
+                link.head = (link.head + 1) % link.departures.length;
+                link.count--;
+            }
+            if (profile.queueDepth > 0 && link.count >= profile.queueDepth) {
+                queueDrops++;
+                return;
+            }
+
+            // The frame leaves once everything queued ahead of it has been serialized
+            link.busyUntil = Math.max(now, link.busyUntil) + profile.serializationMicros(packet.getLength());
+            if (profile.queueDepth > 0) {
+                link.departures[(link.head + link.count) % link.departures.length] = link.busyUntil;
+                link.count++;
+            }
+
+            long jitter = profile.jitterMicros > 0
+                    ? random.nextLong(-profile.jitterMicros, profile.jitterMicros + 1)
+                    : 0;
+            arrival = link.busyUntil + Math.max(0, profile.delayMicros + jitter);
+            if (arrival <= now) {
+                arrival = -1;
+            } else {
+                delayed++;
+            }
+        }
+
+        if (arrival < 0) {
+            socket.send(packet);
+            return;
+        }
+        byte[] copy = Arrays.copyOfRange(packet.getData(), packet.getOffset(),
+                packet.getOffset() + packet.getLength());
+        wheel.schedule(arrival, new DatagramPacket(copy, copy.length, packet.getAddress(), packet.getPort()));
+    }
+
+    /**
+     * Stops the timing wheel, dropping frames still in flight, and its report hook
+     */
+    public synchronized void close() {
+        if (wheel == null) return;
+        wheel.stop();
+        try {
+            Runtime.getRuntime().removeShutdownHook(reportHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down; the hook runs anyway
+        }
+    }
+
+    /**
+     * Returns the state for the link to the neighbor, starting afresh if a
+     * config reload changed the link's settings
+     */
+    private LinkState stateFor(int neighbor, LinkProfile profile) {
+        if (neighbor >= links.length) {
+            links = Arrays.copyOf(links, Math.max(neighbor + 1, links.length * 2));
+        }
+        LinkState link = links[neighbor];
+        if (link == null || link.profile != profile) {
+            link = new LinkState(profile);
+            links[neighbor] = link;
+        }
+        return link;
+    }
+
+    public synchronized String describe() {
+        return String.format("%d delayed, %d lost, %d queue drops, %d in flight",
+                delayed, lost, queueDrops, wheel != null ? wheel.size() : 0);
+    }
+}
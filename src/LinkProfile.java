@@ -0,0 +1,92 @@
+/**
+ * Impairment settings for a link, parsed from the options after a LINKS entry,
+ * e.g. "R1-R2 delay=20ms jitter=5ms loss=1% bandwidth=10mbps queue=64".
+ * Both directions of the link use the same settings.
+ */
+
+public class LinkProfile {
+    public long delayMicros;
+    public long jitterMicros;
+    public double lossRate;
+    public long bandwidthBps;
+    public int queueDepth;
+
+    /**
+     * Parses the key=value options starting at the given index, or returns
+     * null if there are none so unimpaired links stay on the fast path
+     */
+    public static LinkProfile parse(String[] options, int from) {
+        if (options.length <= from) return null;
+
+        LinkProfile profile = new LinkProfile();
+        for (int i = from; i < options.length; i++) {
+            String[] option = options[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Invalid link option: " + options[i]);
+            }
+            String value = option[1].toLowerCase();
+            switch (option[0].toLowerCase()) {
+                case "delay":
+                    profile.delayMicros = nonNegative(parseMicros(value), options[i]);
+                    break;
+                case "jitter":
+                    profile.jitterMicros = nonNegative(parseMicros(value), options[i]);
+                    break;
+                case "loss":
+                    profile.lossRate = value.endsWith("%")
+                            ? Double.parseDouble(value.substring(0, value.length() - 1)) / 100
+                            : Double.parseDouble(value);
+                    if (!(profile.lossRate >= 0 && profile.lossRate <= 1)) {
+                        throw new IllegalArgumentException("Loss must be between 0 and 100%: " + options[i]);
+                    }
+                    break;
+                case "bandwidth":
+                    profile.bandwidthBps = nonNegative(parseBitsPerSecond(value), options[i]);
+                    break;
+                case "queue":
+                    profile.queueDepth = (int) nonNegative(Integer.parseInt(value), options[i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown link option: " + options[i]);
+            }
+        }
+        return profile;
+    }
+
+    private static long nonNegative(long value, String option) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Link option must not be negative: " + option);
+        }
+        return value;
+    }
+
+    private static long parseMicros(String value) {
+        if (value.endsWith("us")) return Long.parseLong(value.substring(0, value.length() - 2));
+        if (value.endsWith("ms")) return Math.round(Double.parseDouble(value.substring(0, value.length() - 2)) * 1_000);
+        if (value.endsWith("s")) return Math.round(Double.parseDouble(value.substring(0, value.length() - 1)) * 1_000_000);
+        return Math.round(Double.parseDouble(value) * 1_000);
+    }
+
+    private static long parseBitsPerSecond(String value) {
+        if (value.endsWith("bps")) value = value.substring(0, value.length() - 3);
+        long scale = 1;
+        if (value.endsWith("k")) scale = 1_000;
+        if (value.endsWith("m")) scale = 1_000_000;
+        if (value.endsWith("g")) scale = 1_000_000_000;
+        if (scale > 1) value = value.substring(0, value.length() - 1);
+        return Math.round(Double.parseDouble(value) * scale);
+    }
+
+    /**
+     * Microseconds it takes to put a frame of the given size on the wire
+     */
+    public long serializationMicros(int bytes) {
+        return bandwidthBps > 0 ? bytes * 8L * 1_000_000 / bandwidthBps : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("delay=%dus jitter=%dus loss=%.2f%% bandwidth=%dbps queue=%d",
+                delayMicros, jitterMicros, lossRate * 100, bandwidthBps, queueDepth);
+    }
+}
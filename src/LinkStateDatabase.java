@@ -0,0 +1,340 @@
+import java.util.Arrays;
+
+/**
+ * The link-state database of a router: the newest advertisement from every
+ * router, a compact adjacency graph built from them, and the shortest-path
+ * tree from this router. The graph keeps one neighbor row per router ID, and
+ * a link only counts once both ends advertise it, so an advertisement only
+ * touches the rows of its origin and the neighbors it gained or lost.
+ * Installing it updates the tree incrementally where it can: new links only
+ * propagate the distances they shorten, removed links that are not in the
+ * tree change nothing, and a change to attached subnets alone needs no SPF at
+ * all. The subnets whose route may have moved are collected for the router.
+ */
+
+public class LinkStateDatabase {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    private static final int LINK_COST = 1;
+    private static final int[] NONE = new int[0];
+
+    public static class Advertisement {
+        public final int origin;
+        public final int sequence;
+        public final int[] neighbors;
+        public final int[] subnets;
+
+        public Advertisement(int origin, int sequence, int[] neighbors, int[] subnets) {
+            this.origin = origin;
+            this.sequence = sequence;
+            this.neighbors = neighbors;
+            this.subnets = subnets;
+        }
+    }
+
+    private final int self;
+    private Advertisement[] advertisements = new Advertisement[16];
+    private int[][] adjacency = new int[16][];
+    private int[] distance = new int[0];
+    private int[] parent = new int[0];
+    private int[] firstHop = new int[0];
+    private int[][] advertisers = new int[16][];
+    private boolean[] subnetChanged = new boolean[16];
+    private int[] changedSubnets = new int[16];
+    private int changedCount;
+    private long[] heap = new long[16];
+    private int heapSize;
+    private int fullRuns;
+    private int incrementalRuns;
+    private int skippedRuns;
+
+    public LinkStateDatabase(int self) {
+        this.self = self;
+        ensureRouters(self + 1);
+    }
+
+    public int sequenceOf(int origin) {
+        Advertisement lsa = get(origin);
+        return lsa != null ? lsa.sequence : 0;
+    }
+
+    public Advertisement get(int origin) {
+        return origin >= 0 && origin < advertisements.length ? advertisements[origin] : null;
+    }
+
+    public Advertisement[] getAdvertisements() {
+        return Arrays.stream(advertisements).filter(lsa -> lsa != null).toArray(Advertisement[]::new);
+    }
+
+    /**
+     * Stores the advertisement if it is newer than the one held for its origin
+     * and brings the shortest-path tree up to date. Returns false if it was stale.
+     */
+    public boolean install(Advertisement lsa) {
+        if (lsa.sequence <= sequenceOf(lsa.origin)) return false;
+
+        int highest = lsa.origin;
+        for (int neighbor : lsa.neighbors) highest = Math.max(highest, neighbor);
+        ensureRouters(highest + 1);
+        Advertisement previous = advertisements[lsa.origin];
+        advertisements[lsa.origin] = lsa;
+
+        int[] previousSubnets = previous != null ? previous.subnets : NONE;
+        if (!Arrays.equals(previousSubnets, lsa.subnets)) {
+            for (int subnet : previousSubnets) {
+                advertisers[subnet] = without(advertisers[subnet], lsa.origin);
+                markSubnet(subnet);
+            }
+            for (int subnet : lsa.subnets) {
+                ensureSubnets(subnet + 1);
+                advertisers[subnet] = with(advertisers[subnet], lsa.origin);
+                markSubnet(subnet);
+            }
+        }
+
+        // Only links to the origin can have changed, so only its row and its peers' rows move
+        int[] before = row(lsa.origin);
+        int[] after = twoWayNeighbors(lsa);
+        adjacency[lsa.origin] = after;
+        boolean treeLinkRemoved = false;
+        for (int neighbor : before) {
+            if (contains(after, neighbor)) continue;
+            adjacency[neighbor] = without(row(neighbor), lsa.origin);
+            if (parentOf(neighbor) == lsa.origin || parentOf(lsa.origin) == neighbor) {
+                treeLinkRemoved = true;
+            }
+        }
+        for (int neighbor : after) {
+            if (!contains(before, neighbor)) {
+                adjacency[neighbor] = with(row(neighbor), lsa.origin);
+            }
+        }
+
+        if (treeLinkRemoved || distanceTo(self) != 0) {
+            runFullSpf();
+            return true;
+        }
+
+        int seeds = 0;
+        for (int neighbor : after) {
+            if (!contains(before, neighbor)) {
+                seeds += relax(lsa.origin, neighbor) + relax(neighbor, lsa.origin);
+            }
+        }
+        if (seeds > 0) {
+            propagate();
+            incrementalRuns++;
+        } else {
+            skippedRuns++;
+        }
+        return true;
+    }
+
+    private int[] twoWayNeighbors(Advertisement lsa) {
+        int[] result = new int[lsa.neighbors.length];
+        int count = 0;
+        for (int neighbor : lsa.neighbors) {
+            Advertisement other = get(neighbor);
+            if (other != null && contains(other.neighbors, lsa.origin)) {
+                result[count++] = neighbor;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int[] row(int router) {
+        return adjacency[router] != null ? adjacency[router] : NONE;
+    }
+
+    private void ensureRouters(int nodes) {
+        if (nodes > advertisements.length) {
+            int length = Math.max(nodes, advertisements.length * 2);
+            advertisements = Arrays.copyOf(advertisements, length);
+            adjacency = Arrays.copyOf(adjacency, length);
+        }
+        if (distance.length < nodes) {
+            int oldLength = distance.length;
+            int length = advertisements.length;
+            distance = Arrays.copyOf(distance, length);
+            parent = Arrays.copyOf(parent, length);
+            firstHop = Arrays.copyOf(firstHop, length);
+            Arrays.fill(distance, oldLength, length, UNREACHABLE);
+            Arrays.fill(parent, oldLength, length, -1);
+            Arrays.fill(firstHop, oldLength, length, -1);
+        }
+    }
+
+    private void ensureSubnets(int subnets) {
+        if (subnets > advertisers.length) {
+            int length = Math.max(subnets, advertisers.length * 2);
+            advertisers = Arrays.copyOf(advertisers, length);
+            subnetChanged = Arrays.copyOf(subnetChanged, length);
+        }
+    }
+
+    private void runFullSpf() {
+        int[] oldDistance = distance.clone();
+        int[] oldFirstHop = firstHop.clone();
+        Arrays.fill(distance, UNREACHABLE);
+        Arrays.fill(parent, -1);
+        Arrays.fill(firstHop, -1);
+        distance[self] = 0;
+        push(0, self);
+        propagate();
+        for (int router = 0; router < distance.length; router++) {
+            if (distance[router] != oldDistance[router] || firstHop[router] != oldFirstHop[router]) {
+                markRouter(router);
+            }
+        }
+        fullRuns++;
+    }
+
+    /**
+     * Offers the path through the given link to its far end, preferring a shorter
+     * distance and then the lower first hop. Queues the far end if it improved.
+     */
+    private int relax(int from, int to) {
+        if (distance[from] == UNREACHABLE) return 0;
+
+        int candidate = distance[from] + LINK_COST;
+        int hop = from == self ? to : firstHop[from];
+        boolean better = candidate < distance[to]
+                || (candidate == distance[to] && (parent[to] == from ? firstHop[to] != hop : hop < firstHop[to]));
+        if (!better || to == self) return 0;
+
+        distance[to] = candidate;
+        parent[to] = from;
+        firstHop[to] = hop;
+        markRouter(to);
+        push(candidate, to);
+        return 1;
+    }
+
+    private void propagate() {
+        while (heapSize > 0) {
+            long top = pop();
+            int router = (int) top;
+            if ((int) (top >>> 32) != distance[router]) continue;
+            for (int neighbor : row(router)) {
+                relax(router, neighbor);
+            }
+        }
+    }
+
+    /**
+     * A router's path changed, so the routes to everything it advertises may have too
+     */
+    private void markRouter(int router) {
+        Advertisement lsa = advertisements[router];
+        if (lsa == null) return;
+        for (int subnet : lsa.subnets) markSubnet(subnet);
+    }
+
+    private void markSubnet(int subnet) {
+        if (subnetChanged[subnet]) return;
+        subnetChanged[subnet] = true;
+        if (changedCount == changedSubnets.length) {
+            changedSubnets = Arrays.copyOf(changedSubnets, changedCount * 2);
+        }
+        changedSubnets[changedCount++] = subnet;
+    }
+
+    /**
+     * Returns the subnets whose best route may have changed since the last call
+     */
+    public int[] takeChangedSubnets() {
+        int[] result = Arrays.copyOf(changedSubnets, changedCount);
+        for (int subnet : result) subnetChanged[subnet] = false;
+        changedCount = 0;
+        return result;
+    }
+
+    /**
+     * The nearest other router advertising the subnet, preferring the lower
+     * first hop on ties, or -1 if none is reachable
+     */
+    public int nearestAdvertiser(int subnet) {
+        if (subnet < 0 || subnet >= advertisers.length || advertisers[subnet] == null) return -1;
+        int best = -1;
+        for (int router : advertisers[subnet]) {
+            if (router == self || distance[router] == UNREACHABLE) continue;
+            if (best < 0 || distance[router] < distance[best]
+                    || (distance[router] == distance[best] && firstHop[router] < firstHop[best])) {
+                best = router;
+            }
+        }
+        return best;
+    }
+
+    private void push(int dist, int router) {
+        if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+        long entry = ((long) dist << 32) | router;
+        int i = heapSize++;
+        while (i > 0 && heap[(i - 1) / 2] > entry) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = entry;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    private int parentOf(int router) {
+        return router >= 0 && router < parent.length ? parent[router] : -1;
+    }
+
+    /**
+     * Hop count from this router, or UNREACHABLE
+     */
+    public int distanceTo(int router) {
+        return router >= 0 && router < distance.length ? distance[router] : UNREACHABLE;
+    }
+
+    /**
+     * The neighbor this router forwards through to reach the given router
+     */
+    public int firstHopTo(int router) {
+        return router >= 0 && router < firstHop.length ? firstHop[router] : -1;
+    }
+
+    public String describeRuns() {
+        return String.format("%d full SPF, %d incremental, %d skipped", fullRuns, incrementalRuns, skippedRuns);
+    }
+
+    private static int[] with(int[] values, int value) {
+        int[] current = values != null ? values : NONE;
+        if (contains(current, value)) return current;
+        int[] result = Arrays.copyOf(current, current.length + 1);
+        result[current.length] = value;
+        return result;
+    }
+
+    private static int[] without(int[] values, int value) {
+        if (values == null || !contains(values, value)) return values;
+        int[] result = new int[values.length - 1];
+        int count = 0;
+        for (int candidate : values) {
+            if (candidate != value) result[count++] = candidate;
+        }
+        return result;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int candidate : values) {
+            if (candidate == value) return true;
+        }
+        return false;
+    }
+}
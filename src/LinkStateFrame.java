@@ -0,0 +1,63 @@
+import java.nio.ByteBuffer;
+
+/**
+ * LinkStateFrame serializes link-state advertisements into a routing frame's payload.
+ * A frame carries one or more advertisements, each written as the origin router,
+ * a varint sequence number, the neighboring routers and the directly attached
+ * subnets, all as wire keys. Flooding sends one advertisement; a database
+ * exchange with a new neighbor sends them all in one frame.
+ */
+
+public class LinkStateFrame {
+    private final Frame frame;
+
+    public LinkStateFrame(Frame frame) {
+        this.frame = frame;
+    }
+
+    public static boolean isLinkState(Frame frame) {
+        return frame.data.length > 0 && frame.data[0] == Frame.FrameType.LINK_STATE.ordinal();
+    }
+
+    public static byte[] encode(SymbolTable symbols, LinkStateDatabase.Advertisement... advertisements) {
+        int length = 1 + Varint.varintSize(advertisements.length);
+        for (LinkStateDatabase.Advertisement lsa : advertisements) {
+            length += symbols.symbolSize(lsa.origin) + Varint.varintSize(lsa.sequence)
+                    + Varint.varintSize(lsa.neighbors.length) + Varint.varintSize(lsa.subnets.length);
+            for (int neighbor : lsa.neighbors) length += symbols.symbolSize(neighbor);
+            for (int subnet : lsa.subnets) length += symbols.symbolSize(subnet);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put((byte) Frame.FrameType.LINK_STATE.ordinal());
+        Varint.putVarint(buffer, advertisements.length);
+        for (LinkStateDatabase.Advertisement lsa : advertisements) {
+            symbols.writeSymbol(buffer, lsa.origin);
+            Varint.putVarint(buffer, lsa.sequence);
+            Varint.putVarint(buffer, lsa.neighbors.length);
+            for (int neighbor : lsa.neighbors) symbols.writeSymbol(buffer, neighbor);
+            Varint.putVarint(buffer, lsa.subnets.length);
+            for (int subnet : lsa.subnets) symbols.writeSymbol(buffer, subnet);
+        }
+        return buffer.array();
+    }
+
+    public LinkStateDatabase.Advertisement[] getAdvertisements() {
+        SymbolTable.WireKeys keys = frame.keys;
+        ByteBuffer buffer = ByteBuffer.wrap(frame.data);
+
+        buffer.get();
+
+        LinkStateDatabase.Advertisement[] advertisements = new LinkStateDatabase.Advertisement[Varint.getVarint(buffer)];
+        for (int i = 0; i < advertisements.length; i++) {
+            int origin = keys.readSymbol(buffer);
+            int sequence = Varint.getVarint(buffer);
+            int[] neighbors = new int[Varint.getVarint(buffer)];
+            for (int j = 0; j < neighbors.length; j++) neighbors[j] = keys.readSymbol(buffer);
+            int[] subnets = new int[Varint.getVarint(buffer)];
+            for (int j = 0; j < subnets.length; j++) subnets[j] = keys.readSymbol(buffer);
+            advertisements[i] = new LinkStateDatabase.Advertisement(origin, sequence, neighbors, subnets);
+        }
+        return advertisements;
+    }
+}
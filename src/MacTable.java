@@ -0,0 +1,112 @@
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A switch's MAC address table, shared by all of its forwarding shards.
+ * Lookups are lock-free reads of an array indexed by MAC symbol ID. With
+ * several shards every change is made by one learner thread, the table's
+ * single learning authority, so shards only queue a request when they see a
+ * MAC on a new port. A single shard applies what it learns itself.
+ */
+
+public class MacTable {
+    private final SymbolTable symbols;
+    private final ExecutorService learner;
+    private volatile AtomicReferenceArray<VirtualPort> ports = new AtomicReferenceArray<>(16);
+    private volatile int[] learnedMacs = new int[0];
+    private volatile boolean learnInline;
+
+    public MacTable(String switchId, SymbolTable symbols) {
+        this.symbols = symbols;
+        this.learner = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mac-learner-" + switchId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public VirtualPort lookup(int mac) {
+        AtomicReferenceArray<VirtualPort> current = ports;
+        return mac >= 0 && mac < current.length() ? current.get(mac) : null;
+    }
+
+    /**
+     * The MACs learned so far; the returned array is never modified
+     */
+    public int[] getLearnedMacs() {
+        return learnedMacs;
+    }
+
+    /**
+     * Makes learn() apply changes on the calling thread instead of queuing them,
+     * for a switch with only one shard
+     */
+    public void setLearnInline(boolean learnInline) {
+        this.learnInline = learnInline;
+    }
+
+    /**
+     * Maps the MAC to the port, unless it already is
+     */
+    public void learn(int mac, VirtualPort port) {
+        if (isMappedTo(mac, port)) return;
+        if (learnInline) {
+            apply(mac, port);
+        } else {
+            learner.execute(() -> apply(mac, port));
+        }
+    }
+
+    private boolean isMappedTo(int mac, VirtualPort port) {
+        VirtualPort known = lookup(mac);
+        return known != null && known.port == port.port && known.ip.equals(port.ip);
+    }
+
+    public void forget(int mac) {
+        learner.execute(() -> remove(mac));
+    }
+
+    /**
+     * Waits until every change requested so far has been applied
+     */
+    public void sync() {
+        try {
+            learner.submit(() -> { }).get();
+        } catch (Exception e) {
+            throw new IllegalStateException("MAC learner stopped", e);
+        }
+    }
+
+    private synchronized void apply(int mac, VirtualPort port) {
+        // Shards may queue the same change several times before the first is applied
+        if (isMappedTo(mac, port)) return;
+
+        AtomicReferenceArray<VirtualPort> current = ports;
+        if (mac >= current.length()) {
+            AtomicReferenceArray<VirtualPort> grown =
+                    new AtomicReferenceArray<>(Math.max(mac + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            current = grown;
+            ports = grown;
+        }
+
+        if (current.getAndSet(mac, port) == null) {
+            int[] learned = Arrays.copyOf(learnedMacs, learnedMacs.length + 1);
+            learned[learned.length - 1] = mac;
+            learnedMacs = learned;
+        }
+        System.out.printf("[MAC TABLE] Learned %s → %s:%d (%d entries)\n",
+                symbols.name(mac), port.ip.getHostAddress(), port.port, learnedMacs.length);
+    }
+
+    private synchronized void remove(int mac) {
+        AtomicReferenceArray<VirtualPort> current = ports;
+        if (mac < 0 || mac >= current.length() || current.getAndSet(mac, null) == null) return;
+        learnedMacs = Arrays.stream(learnedMacs).filter(learned -> learned != mac).toArray();
+        System.out.printf("[MAC TABLE] Forgot %s (port changed in config)\n", symbols.name(mac));
+    }
+}
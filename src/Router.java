@@ -1,22 +1,35 @@
 import java.io.File;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * A virtual router that uses a routing table
  * to get the next hop for each packet and
- * rewrites the source and destination MAC addresses
+ * rewrites the source and destination MAC addresses.
+ * Routes are learned by distance vector, or by link state if the config selects it.
  */
 
 public class Router {
     private String routerId;
+    private int routerMac;
     private ConfigParser parser;
+    private SymbolTable symbols;
     private RoutingTable routingTable;
     private DistanceVector distanceVector;
-    private Map<String, DistanceVector> neighborVectors = new HashMap<>();
+    private DistanceVector[] neighborVectors = new DistanceVector[16];
+    private TraceRecorder recorder;
+    private LinkEmulator links;
+    private boolean linkState;
+    private LinkStateDatabase linkStateDatabase;
+    private int sequence;
+    private final long startMillis = System.currentTimeMillis();
+    private long routingFramesSent;
+    private long routingBytesSent;
+    private long routingFramesReceived;
+    private long lastRouteChangeMillis = -1;
+    private long[] routeSignature = new long[0];
 
     public static void main(String[] args) {
         if (args.length < 2) {
@@ -35,15 +48,23 @@ public class Router {
                 System.exit(1);
             }
 
-            RoutingTable routingTable = parser.getRoutingTable(routerId);
+            RoutingTable routingTable = parser.getRoutingTable(parser.getSymbols().lookup(routerId));
             if (routingTable == null) {
                 System.err.println("Error: No routing table for " + routerId);
                 System.exit(1);
             }
 
             Router router = new Router(routerId, parser, routingTable);
-            System.out.printf("[ROUTER %s] Running on %s:%d\n",
-                    routerId, routerPort.ip.getHostAddress(), routerPort.port);
+            if (router.linkState) {
+                // Link-state routers resynchronize their database from neighbors instead
+                System.out.println("[LS] Link-state routing; snapshots are not used");
+            } else {
+                router.enableSnapshots(new StateSnapshot(StateSnapshot.fileFor(configFile, routerId),
+                        routerId, parser::getFingerprint));
+            }
+            System.out.printf("[ROUTER %s] Running on %s:%d (%s)\n",
+                    routerId, routerPort.ip.getHostAddress(), routerPort.port,
+                    router.linkState ? "link state" : "distance vector");
 
             router.start(routerPort);
         } catch (Exception e) {
@@ -55,50 +76,211 @@ public class Router {
     public Router(String routerId, ConfigParser parser, RoutingTable routingTable) {
         this.routerId = routerId;
         this.parser = parser;
+        this.symbols = parser.getSymbols();
+        this.routerMac = symbols.lookup(routerId);
         this.routingTable = routingTable;
-        this.distanceVector = new DistanceVector();
-        initializeDistanceVector();
+        this.distanceVector = new DistanceVector(symbols);
+        this.recorder = TraceRecorder.forDevice(routerId, parser.getFingerprint());
+        this.links = new LinkEmulator(parser, routerMac);
+        this.linkState = parser.isLinkStateRouting();
+        if (linkState) {
+            linkStateDatabase = new LinkStateDatabase(routerMac);
+            // Start from the clock so a restarted router's advertisements supersede its old ones
+            sequence = (int) (System.currentTimeMillis() / 1000);
+        } else {
+            initializeDistanceVector();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                System.out.printf("[ROUTER %s] %s\n", routerId, describeRouting())));
     }
 
     private void initializeDistanceVector() {
         for (RoutingTable.Entry entry : routingTable.getEntries()) {
-            if ("Direct".equals(entry.nextHop)) {
+            if (entry.isDirect()) {
                 distanceVector.addEntry(entry.subnet, 1);
-                System.out.printf("[DV] Added direct route: %s (cost 1)\n", entry.subnet);
+                System.out.printf("[DV] Added direct route: %s (cost 1)\n", symbols.name(entry.subnet));
             }
         }
         System.out.println("[DV] Initial Distance Vector:\n" + distanceVector);
     }
 
+    /**
+     * Restores the distance vector, neighbor vectors and learned routes from the
+     * last valid snapshot, if any, and starts persisting them periodically
+     */
+    public void enableSnapshots(StateSnapshot snapshot) {
+        ByteBuffer state = snapshot.load();
+        if (state != null) {
+            synchronized (this) {
+                try {
+                    DistanceVector restoredDV = readVector(state);
+                    DistanceVector[] restoredNeighbors = new DistanceVector[neighborVectors.length];
+                    int neighbors = Varint.getVarint(state);
+                    for (int i = 0; i < neighbors; i++) {
+                        int neighbor = symbols.intern(StateSnapshot.getString(state));
+                        if (neighbor >= restoredNeighbors.length) {
+                            restoredNeighbors = Arrays.copyOf(restoredNeighbors, neighbor + 1);
+                        }
+                        restoredNeighbors[neighbor] = readVector(state);
+                    }
+                    int routes = Varint.getVarint(state);
+                    routingTable.clearLearnedRoutes();
+                    for (int i = 0; i < routes; i++) {
+                        int subnet = symbols.intern(StateSnapshot.getString(state));
+                        int nextHop = symbols.intern(StateSnapshot.getString(state));
+                        int exitPort = symbols.intern(StateSnapshot.getString(state));
+                        routingTable.addEntry(subnet, nextHop, exitPort, Varint.getVarint(state), true);
+                    }
+
+                    // Direct routes always come from the config, even if the snapshot disagrees
+                    for (RoutingTable.Entry entry : routingTable.getEntries()) {
+                        if (entry.isDirect()) restoredDV.addEntry(entry.subnet, 1);
+                    }
+                    distanceVector = restoredDV;
+                    neighborVectors = restoredNeighbors;
+                    System.out.printf("[SNAPSHOT] Restored %d subnets, %d neighbor vectors and %d learned routes\n",
+                            distanceVector.size(), neighbors, routes);
+                    System.out.println("[DV] Restored Distance Vector:\n" + distanceVector);
+                } catch (Exception e) {
+                    System.err.println("Ignoring invalid snapshot: " + e.getMessage());
+                    routingTable.clearLearnedRoutes();
+                }
+            }
+        }
+        snapshot.startPeriodic(this::snapshotState);
+    }
+
+    private synchronized byte[] snapshotState() {
+        ByteBuffer buffer = ByteBuffer.allocate(StateSnapshot.MAX_STATE_SIZE);
+        writeVector(buffer, distanceVector);
+
+        int neighbors = 0;
+        for (DistanceVector neighborDV : neighborVectors) {
+            if (neighborDV != null) neighbors++;
+        }
+        Varint.putVarint(buffer, neighbors);
+        for (int neighbor = 0; neighbor < neighborVectors.length; neighbor++) {
+            if (neighborVectors[neighbor] != null) {
+                StateSnapshot.putString(buffer, symbols.name(neighbor));
+                writeVector(buffer, neighborVectors[neighbor]);
+            }
+        }
+
+        RoutingTable.Entry[] learned = routingTable.getEntries().stream()
+                .filter(entry -> entry.learned)
+                .toArray(RoutingTable.Entry[]::new);
+        Varint.putVarint(buffer, learned.length);
+        for (RoutingTable.Entry entry : learned) {
+            StateSnapshot.putString(buffer, symbols.name(entry.subnet));
+            StateSnapshot.putString(buffer, symbols.name(entry.nextHop));
+            StateSnapshot.putString(buffer, symbols.name(entry.exitPort));
+            Varint.putVarint(buffer, entry.distance);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private void writeVector(ByteBuffer buffer, DistanceVector dv) {
+        int[] subnets = dv.getKnownSubnetIds();
+        Varint.putVarint(buffer, subnets.length);
+        for (int subnetId : subnets) {
+            StateSnapshot.putString(buffer, symbols.name(subnetId));
+            Varint.putVarint(buffer, dv.getEntry(subnetId));
+        }
+    }
+
+    private DistanceVector readVector(ByteBuffer buffer) {
+        DistanceVector dv = new DistanceVector(symbols);
+        int entries = Varint.getVarint(buffer);
+        for (int i = 0; i < entries; i++) {
+            int subnetId = symbols.intern(StateSnapshot.getString(buffer));
+            dv.addEntry(subnetId, Varint.getVarint(buffer));
+        }
+        return dv;
+    }
+
     private void start(VirtualPort routerPort) throws Exception {
         try (DatagramSocket socket = new DatagramSocket(routerPort.port)) {
-            sendDistanceVectorToNeighbors(socket);
+            new ConfigWatcher(parser.getConfigFile(), () -> reloadConfig(socket)).start();
+            synchronized (this) {
+                if (linkState) {
+                    originateLinkState(socket);
+                } else {
+                    sendDistanceVectorToNeighbors(socket);
+                }
+            }
 
-            byte[] buffer = new byte[1024];
+            byte[] buffer = new byte[Frame.MAX_FRAME_SIZE];
             while (true) {
                 DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 socket.receive(packet);
+                if (recorder != null) recorder.record(TraceRecorder.RECEIVED, packet);
 
-                Frame frame = new Frame();
-                frame.readPacket(packet);
+                synchronized (this) {
+                    try {
+                        Frame frame = new Frame(symbols);
+                        frame.readPacket(packet);
 
-                if (frame.type == 0) {
-                    processRoutingUpdate(frame, socket);
-                } else {
-                    processUserPacket(frame, socket);
+                        if (frame.type == 0) {
+                            processRoutingUpdate(frame, socket);
+                        } else {
+                            processUserPacket(frame, socket);
+                        }
+                    } catch (RuntimeException e) {
+                        // e.g. a neighbor that reloaded first names a subnet we do not know yet
+                        System.err.printf("[ROUTER %s] Dropped undecodable frame from %s:%d: %s\n",
+                                routerId, packet.getAddress().getHostAddress(), packet.getPort(), e);
+                    }
                 }
             }
         }
     }
 
     private void processRoutingUpdate(Frame frame, DatagramSocket socket) throws Exception {
-        System.out.printf("\n[ROUTER %s] Received DV update from %s\n", routerId, frame.sourceMac);
+        routingFramesReceived++;
+        if (LinkStateFrame.isLinkState(frame) != linkState) {
+            System.out.printf("\n[ROUTER %s] Ignoring %s update from %s (running %s)\n", routerId,
+                    linkState ? "DV" : "link-state", symbols.name(frame.sourceMac),
+                    linkState ? "link state" : "distance vector");
+            return;
+        }
+        if (linkState) {
+            processLinkState(frame, socket);
+            return;
+        }
+
+        System.out.printf("\n[ROUTER %s] Received DV update from %s\n", routerId, symbols.name(frame.sourceMac));
 
         DistanceVectorFrame dvFrame = new DistanceVectorFrame(frame);
-        DistanceVector neighborDV = dvFrame.getDistanceVector();
-        neighborVectors.put(frame.sourceMac, neighborDV);
+        if (frame.sourceMac >= neighborVectors.length) {
+            neighborVectors = Arrays.copyOf(neighborVectors, Math.max(frame.sourceMac + 1, neighborVectors.length * 2));
+        }
 
-        String[] updatedSubnets = distanceVector.updateEntries(neighborDV);
+        if (dvFrame.isUpdate()) {
+            if (neighborVectors[frame.sourceMac] == null) {
+                neighborVectors[frame.sourceMac] = new DistanceVector(symbols);
+            }
+            int[] changedSubnets = recomputeSubnets(dvFrame.applyTo(neighborVectors[frame.sourceMac]));
+            if (changedSubnets.length > 0) {
+                System.out.println("[DV] Updated Distance Vector:\n" + distanceVector);
+                updateRoutingTableFromDV();
+                sendDistanceVectorUpdate(socket, changedSubnets);
+            }
+            return;
+        }
+
+        DistanceVector previousDV = neighborVectors[frame.sourceMac];
+        DistanceVector neighborDV = dvFrame.getDistanceVector();
+        neighborVectors[frame.sourceMac] = neighborDV;
+
+        // Recompute over the old and new entries so routes the neighbor dropped or lengthened are noticed too
+        int[] advertised = neighborDV.getKnownSubnetIds();
+        if (previousDV != null) {
+            int[] previous = previousDV.getKnownSubnetIds();
+            advertised = Arrays.copyOf(advertised, advertised.length + previous.length);
+            System.arraycopy(previous, 0, advertised, advertised.length - previous.length, previous.length);
+            advertised = Arrays.stream(advertised).distinct().toArray();
+        }
+        int[] updatedSubnets = recomputeSubnets(advertised);
 
         if (updatedSubnets.length > 0) {
             System.out.println("[DV] Updated Distance Vector:\n" + distanceVector);
@@ -108,106 +290,352 @@ public class Router {
     }
 
     private void updateRoutingTableFromDV() {
-        List<RoutingTable.Entry> directRoutes = routingTable.getEntries().stream()
-                .filter(entry -> "Direct".equals(entry.nextHop))
-                .toList();
-
-        routingTable.getEntries().clear();
-        routingTable.getEntries().addAll(directRoutes);
-
-        for (String subnet : distanceVector.getKnownSubnets()) {
-            if (subnet.startsWith("net")) {
-                int minDistance = Integer.MAX_VALUE;
-                String bestNeighbor = null;
-
-                for (Map.Entry<String, DistanceVector> entry : neighborVectors.entrySet()) {
-                    String neighbor = entry.getKey();
-                    DistanceVector neighborDV = entry.getValue();
-
-                    if (neighborDV.map.containsKey(subnet)) {
-                        int totalDistance = neighborDV.map.get(subnet) + 1;
-                        if (totalDistance < minDistance) {
-                            minDistance = totalDistance;
-                            bestNeighbor = neighbor;
-                        }
+        routingTable.clearLearnedRoutes();
+
+        for (int subnetId : distanceVector.getKnownSubnetIds()) {
+            if (routingTable.hasDirectRoute(subnetId)) continue;
+
+            int minDistance = Integer.MAX_VALUE;
+            int bestNeighbor = -1;
+
+            for (int neighbor = 0; neighbor < neighborVectors.length; neighbor++) {
+                DistanceVector neighborDV = neighborVectors[neighbor];
+
+                if (neighborDV != null && neighborDV.hasEntry(subnetId)) {
+                    int totalDistance = neighborDV.getEntry(subnetId) + 1;
+                    if (totalDistance < minDistance) {
+                        minDistance = totalDistance;
+                        bestNeighbor = neighbor;
                     }
                 }
+            }
 
-                if (bestNeighbor != null && !directRoutes.stream().anyMatch(e -> e.subnet.equals(subnet))) {
-                    String exitPort = getExitPortForNeighbor(bestNeighbor);
-                    routingTable.addEntry(subnet, bestNeighbor, exitPort, minDistance);
-                    System.out.printf("[ROUTING] Added route: %s via %s (cost %d)\n",
-                            subnet, bestNeighbor, minDistance);
+            if (bestNeighbor >= 0) {
+                int exitPort = getExitPortForNeighbor(bestNeighbor);
+                routingTable.addEntry(subnetId, bestNeighbor, exitPort, minDistance, true);
+                System.out.printf("[ROUTING] Added route: %s via %s (cost %d)\n",
+                        symbols.name(subnetId), symbols.name(bestNeighbor), minDistance);
+            }
+        }
+        noteRoutingTableChange();
+    }
+
+    /**
+     * Installs every advertisement newer than the one we hold and floods those on
+     * to the other neighbors. Sends our whole database back if the sender just
+     * announced a new version of itself, e.g. after starting, or showed a stale copy.
+     */
+    private void processLinkState(Frame frame, DatagramSocket socket) throws Exception {
+        int sender = frame.sourceMac;
+        System.out.printf("\n[ROUTER %s] Received link-state advertisements from %s\n", routerId, symbols.name(sender));
+
+        LinkStateDatabase.Advertisement[] received = new LinkStateFrame(frame).getAdvertisements();
+        LinkStateDatabase.Advertisement[] installed = new LinkStateDatabase.Advertisement[received.length];
+        int count = 0;
+        boolean senderBehind = false;
+
+        for (LinkStateDatabase.Advertisement lsa : received) {
+            if (lsa.origin == routerMac) {
+                if (lsa.sequence > sequence) {
+                    // Our own advertisement from before a restart; continue numbering after it
+                    sequence = lsa.sequence;
+                    originateLinkState(socket);
+                } else if (lsa.sequence < sequence) {
+                    senderBehind = true;
                 }
+                continue;
             }
+
+            int known = linkStateDatabase.sequenceOf(lsa.origin);
+            if (linkStateDatabase.install(lsa)) {
+                installed[count++] = lsa;
+                senderBehind |= lsa.origin == sender;
+                System.out.printf("[LS] Installed %s seq %d: %d neighbors, %d subnets\n",
+                        symbols.name(lsa.origin), lsa.sequence, lsa.neighbors.length, lsa.subnets.length);
+            } else if (lsa.sequence < known) {
+                senderBehind = true;
+            }
+        }
+
+        if (count > 0) {
+            broadcast(socket, LinkStateFrame.encode(symbols, Arrays.copyOf(installed, count)), sender);
+            updateRoutingTableFromLinkState();
+        }
+        if (senderBehind && parser.isRouter(sender)) {
+            sendTo(socket, LinkStateFrame.encode(symbols, linkStateDatabase.getAdvertisements()), sender);
+            System.out.printf("[LS] Sent database (%d advertisements) to %s\n",
+                    linkStateDatabase.getAdvertisements().length, symbols.name(sender));
+        }
+    }
+
+    /**
+     * Advertises our router neighbors from the config and the subnets we are
+     * directly attached to, under the next sequence number
+     */
+    private void originateLinkState(DatagramSocket socket) throws Exception {
+        int[] neighbors = Arrays.stream(parser.getNeighbors(routerMac)).filter(parser::isRouter).toArray();
+        int[] subnets = routingTable.getEntries().stream()
+                .filter(RoutingTable.Entry::isDirect)
+                .mapToInt(entry -> entry.subnet)
+                .distinct()
+                .toArray();
+        LinkStateDatabase.Advertisement lsa = new LinkStateDatabase.Advertisement(routerMac, ++sequence, neighbors, subnets);
+        linkStateDatabase.install(lsa);
+        System.out.printf("[LS] Originated seq %d: %d neighbors, %d subnets\n", sequence, neighbors.length, subnets.length);
+
+        broadcast(socket, LinkStateFrame.encode(symbols, lsa), -1);
+        updateRoutingTableFromLinkState();
+    }
+
+    /**
+     * Re-routes the subnets the database reports as changed through the first
+     * hop of the shortest path to the nearest router advertising them
+     */
+    private void updateRoutingTableFromLinkState() {
+        boolean changed = false;
+        for (int subnet : linkStateDatabase.takeChangedSubnets()) {
+            int advertiser = routingTable.hasDirectRoute(subnet) ? -1 : linkStateDatabase.nearestAdvertiser(subnet);
+            if (advertiser < 0) {
+                if (routingTable.setLearnedRoute(subnet, -1, -1, 0)) {
+                    System.out.printf("[ROUTING] Removed route: %s\n", symbols.name(subnet));
+                    changed = true;
+                }
+                continue;
+            }
+
+            int hop = linkStateDatabase.firstHopTo(advertiser);
+            int distance = linkStateDatabase.distanceTo(advertiser) + 1;
+            if (routingTable.setLearnedRoute(subnet, hop, getExitPortForNeighbor(hop), distance)) {
+                System.out.printf("[ROUTING] Added route: %s via %s (cost %d)\n",
+                        symbols.name(subnet), symbols.name(hop), distance);
+                changed = true;
+            }
+        }
+        System.out.printf("[LS] %s\n", linkStateDatabase.describeRuns());
+        if (changed) {
+            lastRouteChangeMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Remembers when the learned routes last changed, which marks convergence
+     * once the network settles
+     */
+    private void noteRoutingTableChange() {
+        long[] signature = routingTable.getEntries().stream()
+                .filter(entry -> entry.learned)
+                .mapToLong(entry -> ((long) entry.subnet << 40) | ((long) entry.nextHop << 16) | entry.distance)
+                .sorted()
+                .toArray();
+        if (!Arrays.equals(signature, routeSignature)) {
+            routeSignature = signature;
+            lastRouteChangeMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Routing message counts and the time of the last route change, for
+     * comparing convergence between the two modes
+     */
+    public synchronized String describeRouting() {
+        String converged = lastRouteChangeMillis < 0 ? "never"
+                : String.format("at %d (+%d ms after start)", lastRouteChangeMillis, lastRouteChangeMillis - startMillis);
+        return String.format("%s: sent %d routing frames (%d bytes), received %d, routes last changed %s%s",
+                linkState ? "Link state" : "Distance vector", routingFramesSent, routingBytesSent,
+                routingFramesReceived, converged, linkState ? ", " + linkStateDatabase.describeRuns() : "");
+    }
+
+    /**
+     * Recomputes our distance to each subnet from the direct routes and the stored
+     * neighbor vectors, and returns the subnets whose distance changed
+     */
+    private int[] recomputeSubnets(int[] subnets) {
+        int[] changed = new int[subnets.length];
+        int count = 0;
+
+        for (int subnetId : subnets) {
+            int best = routingTable.hasDirectRoute(subnetId) ? 1 : DistanceVector.INFINITY;
+            for (DistanceVector neighborDV : neighborVectors) {
+                if (neighborDV != null && neighborDV.hasEntry(subnetId)) {
+                    best = Math.min(best, neighborDV.getEntry(subnetId) + 1);
+                }
+            }
+
+            boolean known = distanceVector.hasEntry(subnetId);
+            if (best >= DistanceVector.INFINITY) {
+                if (known) {
+                    distanceVector.removeEntry(subnetId);
+                    changed[count++] = subnetId;
+                }
+            } else if (!known || distanceVector.getEntry(subnetId) != best) {
+                distanceVector.addEntry(subnetId, best);
+                changed[count++] = subnetId;
+            }
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    /**
+     * Called by the config watcher: applies only the changed config lines, drops
+     * vectors from removed neighbors and advertises just the affected subnets
+     */
+    private synchronized void reloadConfig(DatagramSocket socket) {
+        ConfigChanges changes = parser.reload();
+        if (changes.isEmpty()) return;
+        System.out.printf("\n[ROUTER %s] Config reloaded (%d changed lines)\n", routerId, changes.size());
+        if (recorder != null) recorder.rotate(parser.getFingerprint());
+        if (parser.isLinkStateRouting() != linkState) {
+            System.err.printf("[ROUTER %s] Routing mode changed in the config; restart to switch\n", routerId);
+        }
+
+        if (linkState) {
+            if (changes.linksChanged(routerMac) || changes.getChangedSubnets(routerMac).length > 0) {
+                try {
+                    originateLinkState(socket);
+                } catch (Exception e) {
+                    System.err.println("Failed to advertise config changes: " + e.getMessage());
+                }
+            }
+            return;
         }
+
+        int[] affected = changes.getChangedSubnets(routerMac);
+        boolean linksChanged = changes.linksChanged(routerMac);
+        if (linksChanged) {
+            int[] neighbors = parser.getNeighbors(routerMac);
+            for (int neighbor = 0; neighbor < neighborVectors.length; neighbor++) {
+                DistanceVector neighborDV = neighborVectors[neighbor];
+                if (neighborDV != null && !contains(neighbors, neighbor)) {
+                    System.out.printf("[DV] Dropping vector from removed neighbor %s\n", symbols.name(neighbor));
+                    int[] lost = neighborDV.getKnownSubnetIds();
+                    int[] merged = Arrays.copyOf(affected, affected.length + lost.length);
+                    System.arraycopy(lost, 0, merged, affected.length, lost.length);
+                    affected = merged;
+                    neighborVectors[neighbor] = null;
+                }
+            }
+        }
+
+        try {
+            int[] changedSubnets = recomputeSubnets(Arrays.stream(affected).distinct().toArray());
+            if (changedSubnets.length > 0 || affected.length > 0) {
+                System.out.println("[DV] Updated Distance Vector:\n" + distanceVector);
+                updateRoutingTableFromDV();
+            }
+            if (linksChanged) {
+                sendDistanceVectorToNeighbors(socket);
+            } else if (changedSubnets.length > 0) {
+                sendDistanceVectorUpdate(socket, changedSubnets);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to advertise config changes: " + e.getMessage());
+        }
+    }
+
+    private static boolean contains(int[] devices, int device) {
+        for (int candidate : devices) {
+            if (candidate == device) return true;
+        }
+        return false;
     }
 
-    private String getExitPortForNeighbor(String neighbor) {
+    private int getExitPortForNeighbor(int neighbor) {
         if (routerId.equals("R1")) {
-            if (neighbor.equals("R2")) return "top";
-            if (neighbor.equals("R3")) return "bottom";
+            if (symbols.name(neighbor).equals("R2")) return symbols.intern("top");
+            if (symbols.name(neighbor).equals("R3")) return symbols.intern("bottom");
         }
-        return "unknown";
+        return symbols.intern("unknown");
     }
 
     private void processUserPacket(Frame frame, DatagramSocket socket) throws Exception {
         System.out.printf("\n[ROUTER %s] Processing user packet from %s → %s (Dest IP: %s)\n",
-                routerId, frame.sourceMac, frame.destIp, frame.destIp);
+                routerId, symbols.name(frame.sourceMac), symbols.name(frame.destIp), symbols.name(frame.destIp));
 
         System.out.println("[ROUTING TABLE] Current routes:");
         for (RoutingTable.Entry entry : routingTable.getEntries()) {
             System.out.printf("  %s → %s via %s (cost %d)\n",
-                    entry.subnet, entry.nextHop, entry.exitPort, entry.distance);
+                    symbols.name(entry.subnet), symbols.name(entry.nextHop),
+                    symbols.name(entry.exitPort), entry.distance);
         }
 
         RoutingTable.Entry route = routingTable.findBestRoute(frame.destIp);
         if (route == null) {
-            System.out.println("[ERROR] No route found for " + frame.destIp);
+            System.out.println("[ERROR] No route found for " + symbols.name(frame.destIp));
             System.out.println("[DV] Current distance vector:");
-            for (String subnet : distanceVector.getKnownSubnets()) {
-                System.out.printf("  %s: %d\n", subnet, distanceVector.getEntry(subnet));
-            }
+            System.out.print(distanceVector);
             return;
         }
 
-        System.out.printf("[ROUTING] Selected route: %s via %s\n", route.subnet, route.nextHop);
+        System.out.printf("[ROUTING] Selected route: %s via %s\n",
+                symbols.name(route.subnet), symbols.name(route.nextHop));
 
-        frame.sourceMac = routerId;
-        frame.destMac = "Direct".equals(route.nextHop)
-                ? ConfigParser.getMacForIp(frame.destIp)
+        frame.sourceMac = routerMac;
+        frame.destMac = route.isDirect()
+                ? parser.getMacForIp(frame.destIp)
                 : route.nextHop;
 
         VirtualPort targetPort;
-        if ("Direct".equals(route.nextHop)) {
+        if (route.isDirect()) {
             targetPort = parser.getDevicePort(route.exitPort);
         } else {
             targetPort = parser.getDevicePort(route.nextHop);
         }
 
         if (targetPort != null) {
-            socket.send(frame.writePacket(targetPort.ip, targetPort.port));
+            links.send(socket, frame.writePacket(targetPort.ip, targetPort.port),
+                    route.isDirect() ? route.exitPort : route.nextHop);
             System.out.printf("[FORWARDED] %s → %s via %s (%s:%d)\n",
-                    frame.destIp, route.nextHop, route.exitPort,
+                    symbols.name(frame.destIp), symbols.name(route.nextHop), symbols.name(route.exitPort),
                     targetPort.ip.getHostAddress(), targetPort.port);
         } else {
-            System.out.println("[ERROR] Invalid target port for " + route.nextHop);
+            System.out.println("[ERROR] Invalid target port for " + symbols.name(route.nextHop));
         }
     }
 
     private void sendDistanceVectorToNeighbors(DatagramSocket socket) throws Exception {
-        List<String> neighbors = parser.getNeighbors(routerId);
-        for (String neighbor : neighbors) {
-            if (neighbor.startsWith("R")) {
+        broadcast(socket, DistanceVectorFrame.encode(distanceVector), -1);
+    }
+
+    private void sendDistanceVectorUpdate(DatagramSocket socket, int[] changedSubnets) throws Exception {
+        broadcast(socket, DistanceVectorFrame.encodeUpdate(distanceVector, changedSubnets), -1);
+    }
+
+    /**
+     * Sends a routing payload to every router neighbor except one (or -1 for none)
+     */
+    private void broadcast(DatagramSocket socket, byte[] payload, int except) throws Exception {
+        DatagramPacket packet = null;
+        for (int neighbor : parser.getNeighbors(routerMac)) {
+            if (parser.isRouter(neighbor) && neighbor != except) {
                 VirtualPort neighborPort = parser.getDevicePort(neighbor);
                 if (neighborPort != null) {
-                    Frame frame = new Frame(routerId, neighbor, "DV", "DV", new byte[0], 0);
-                    DistanceVectorFrame dvFrame = new DistanceVectorFrame(frame);
-                    dvFrame.addDistanceVector(distanceVector);
-                    socket.send(frame.writePacket(neighborPort.ip, neighborPort.port));
-                    System.out.printf("[DV] Sent DV update to %s\n", neighbor);
+                    if (packet == null) {
+                        // Encode the advertisement once and re-address the same datagram per neighbor
+                        Frame frame = new Frame(symbols, routerMac, SymbolTable.DV,
+                                SymbolTable.DV, SymbolTable.DV, payload, 0);
+                        packet = frame.writePacket(neighborPort.ip, neighborPort.port);
+                    } else {
+                        packet.setAddress(neighborPort.ip);
+                        packet.setPort(neighborPort.port);
+                    }
+                    sendRouting(socket, packet, neighbor);
+                    System.out.printf(linkState ? "[LS] Sent advertisements to %s\n" : "[DV] Sent DV update to %s\n",
+                            symbols.name(neighbor));
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    private void sendTo(DatagramSocket socket, byte[] payload, int neighbor) throws Exception {
+        VirtualPort neighborPort = parser.getDevicePort(neighbor);
+        if (neighborPort == null) return;
+        Frame frame = new Frame(symbols, routerMac, SymbolTable.DV, SymbolTable.DV, SymbolTable.DV, payload, 0);
+        sendRouting(socket, frame.writePacket(neighborPort.ip, neighborPort.port), neighbor);
+    }
+
+    private void sendRouting(DatagramSocket socket, DatagramPacket packet, int neighbor) throws Exception {
+        links.send(socket, packet, neighbor);
+        routingFramesSent++;
+        routingBytesSent += packet.getLength();
+    }
+}
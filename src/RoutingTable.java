@@ -1,62 +1,137 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * A routing table for the router to store entries for
- * subnets and give the best route for a destination IP
+ * subnets and give the best route for a destination IP.
+ * The best entry for each subnet is indexed by subnet ID.
  */
 
 public class RoutingTable {
     public static class Entry {
-        public final String subnet;
-        public final String nextHop;
-        public final String exitPort;
+        public final int subnet;
+        public final int nextHop;
+        public final int exitPort;
         public int distance;
+        public final boolean learned;
 
-        public Entry(String subnet, String nextHop, String exitPort, int distance) {
+        public Entry(int subnet, int nextHop, int exitPort, int distance, boolean learned) {
             this.subnet = subnet;
             this.nextHop = nextHop;
             this.exitPort = exitPort;
             this.distance = distance;
+            this.learned = learned;
         }
 
-        @Override
-        public String toString() {
-            return String.format("%-8s → %-10s via %s (cost: %d)", subnet, nextHop, exitPort, distance);
+        public boolean isDirect() {
+            return nextHop == SymbolTable.DIRECT;
         }
     }
 
+    private final SymbolTable symbols;
     private final List<Entry> entries = new ArrayList<>();
+    private Entry[] bestBySubnet = new Entry[16];
 
-    public void addEntry(String subnet, String nextHop, String exitPort, int distance) {
-        entries.add(new Entry(subnet, nextHop, exitPort, distance));
+    public RoutingTable(SymbolTable symbols) {
+        this.symbols = symbols;
     }
 
-    public Entry findBestRoute(String destIp) {
-        Entry bestMatch = null;
+    public void addEntry(int subnet, int nextHop, int exitPort, int distance) {
+        addEntry(subnet, nextHop, exitPort, distance, false);
+    }
+
+    public void addEntry(int subnet, int nextHop, int exitPort, int distance, boolean learned) {
+        Entry entry = new Entry(subnet, nextHop, exitPort, distance, learned);
+        entries.add(entry);
+        if (subnet >= bestBySubnet.length) {
+            bestBySubnet = Arrays.copyOf(bestBySubnet, Math.max(subnet + 1, bestBySubnet.length * 2));
+        }
+        Entry best = bestBySubnet[subnet];
+        if (best == null || entry.distance < best.distance) {
+            bestBySubnet[subnet] = entry;
+        }
+    }
+
+    public void removeEntry(int subnet, int nextHop, int exitPort) {
+        entries.removeIf(entry -> !entry.learned && entry.subnet == subnet
+                && entry.nextHop == nextHop && entry.exitPort == exitPort);
+        reindex();
+    }
+
+    public void clearLearnedRoutes() {
+        entries.removeIf(entry -> entry.learned);
+        reindex();
+    }
+
+    /**
+     * Replaces the learned route to one subnet, or only removes it if nextHop
+     * is -1, and returns whether anything changed
+     */
+    public boolean setLearnedRoute(int subnet, int nextHop, int exitPort, int distance) {
+        Entry existing = null;
         for (Entry entry : entries) {
-            if (destIp.startsWith(entry.subnet)) {
-                if (bestMatch == null ||
-                        entry.distance < bestMatch.distance ||
-                        (entry.distance == bestMatch.distance && entry.subnet.length() > bestMatch.subnet.length())) {
-                    bestMatch = entry;
+            if (entry.learned && entry.subnet == subnet) existing = entry;
+        }
+        if (existing == null ? nextHop < 0
+                : existing.nextHop == nextHop && existing.exitPort == exitPort && existing.distance == distance) {
+            return false;
+        }
+
+        if (existing != null) entries.remove(existing);
+        if (nextHop >= 0) {
+            addEntry(subnet, nextHop, exitPort, distance, true);
+        }
+        if (subnet < bestBySubnet.length) {
+            bestBySubnet[subnet] = null;
+            for (Entry entry : entries) {
+                Entry best = bestBySubnet[subnet];
+                if (entry.subnet == subnet && (best == null || entry.distance < best.distance)) {
+                    bestBySubnet[subnet] = entry;
                 }
             }
         }
-        return bestMatch;
+        return true;
+    }
+
+    private void reindex() {
+        Arrays.fill(bestBySubnet, null);
+        for (Entry entry : entries) {
+            Entry best = bestBySubnet[entry.subnet];
+            if (best == null || entry.distance < best.distance) {
+                bestBySubnet[entry.subnet] = entry;
+            }
+        }
+    }
+
+    public boolean hasDirectRoute(int subnet) {
+        for (Entry entry : entries) {
+            if (entry.subnet == subnet && entry.isDirect()) return true;
+        }
+        return false;
+    }
+
+    public Entry findBestRoute(int destIp) {
+        int subnet = symbols.subnetOf(destIp);
+        return subnet >= 0 && subnet < bestBySubnet.length ? bestBySubnet[subnet] : null;
     }
 
     public List<Entry> getEntries() {
         return new ArrayList<>(entries);
     }
 
+    public String format(Entry entry) {
+        return String.format("%-8s → %-10s via %s (cost: %d)", symbols.name(entry.subnet),
+                symbols.name(entry.nextHop), symbols.name(entry.exitPort), entry.distance);
+    }
+
     @Override
     public String toString() {
         if (entries.isEmpty()) return "No routes configured";
         StringBuilder sb = new StringBuilder();
         for (Entry entry : entries) {
-            sb.append(entry).append("\n");
+            sb.append(format(entry)).append("\n");
         }
         return sb.toString();
     }
-}
\ No newline at end of file
+}
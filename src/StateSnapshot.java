@@ -0,0 +1,207 @@
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * A memory-mapped snapshot file that lets a device persist its learned state
+ * and reload it after a restart. The file holds two slots that are written
+ * alternately, each with a sequence number and CRC, so a crash mid-write
+ * always leaves the previous snapshot intact.
+ */
+
+public class StateSnapshot {
+    private static final int MAGIC = 0x56495053;
+    private static final int VERSION = 1;
+    private static final int SLOT_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+    public static final int MAX_STATE_SIZE = SLOT_SIZE - HEADER_SIZE - 256;
+    private static final long INTERVAL_MILLIS = 1000;
+
+    private final File file;
+    private final String deviceId;
+    private final LongSupplier configFingerprint;
+    private MappedByteBuffer mapped;
+    private long sequence;
+    private long lastCrc = -1;
+    private boolean tooLarge;
+
+    public StateSnapshot(File file, String deviceId, LongSupplier configFingerprint) {
+        this.file = file;
+        this.deviceId = deviceId;
+        this.configFingerprint = configFingerprint;
+    }
+
+    public static File fileFor(File configFile, String deviceId) {
+        return new File(configFile.getAbsoluteFile().getParentFile(), deviceId + ".snapshot");
+    }
+
+    /**
+     * Returns the body of the newest valid snapshot, or null if there is none
+     * or it was taken by another device or against a different config
+     */
+    public ByteBuffer load() {
+        if (!file.exists()) return null;
+        try {
+            map();
+            long expectedFingerprint = configFingerprint.getAsLong();
+            ByteBuffer best = null;
+            for (int slot = 0; slot < 2; slot++) {
+                ByteBuffer header = mapped.duplicate();
+                header.position(slot * SLOT_SIZE);
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) continue;
+                long slotSequence = header.getLong();
+                long timestamp = header.getLong();
+                long fingerprint = header.getLong();
+                int length = header.getInt();
+                int crc = header.getInt();
+                if (fingerprint != expectedFingerprint || length < 0 || length > SLOT_SIZE - HEADER_SIZE) continue;
+
+                ByteBuffer body = header.slice();
+                body.limit(length);
+                if (crc != (int) crc(body)) continue;
+
+                String owner = getString(body.duplicate());
+                if (!owner.equals(deviceId)) continue;
+
+                if (best == null || slotSequence > sequence) {
+                    sequence = slotSequence;
+                    best = body;
+                    System.out.printf("[SNAPSHOT] Found snapshot #%d from %d ms ago\n",
+                            slotSequence, System.currentTimeMillis() - timestamp);
+                }
+            }
+            if (best != null) {
+                getString(best);
+            }
+            return best;
+        } catch (Exception e) {
+            System.err.println("Snapshot load error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot into the older slot, skipping it if nothing changed
+     * since the last write
+     */
+    public synchronized void write(byte[] state) {
+        try {
+            byte[] owner = deviceId.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer body = ByteBuffer.allocate(Varint.varintSize(owner.length) + owner.length + state.length);
+            putString(body, deviceId);
+            body.put(state);
+            body.flip();
+
+            long bodyCrc = crc(body);
+            if (bodyCrc == lastCrc) return;
+            if (body.remaining() > SLOT_SIZE - HEADER_SIZE) {
+                System.err.println("Snapshot too large: " + body.remaining() + " bytes");
+                return;
+            }
+
+            map();
+            sequence++;
+            ByteBuffer slot = mapped.duplicate();
+            int start = (int) (sequence % 2) * SLOT_SIZE;
+
+            // Invalidate the slot, write the body, then the header, so a torn write never validates
+            slot.putInt(start, 0);
+            slot.position(start + HEADER_SIZE);
+            slot.put(body.duplicate());
+            slot.position(start + 4);
+            slot.putInt(VERSION);
+            slot.putLong(sequence);
+            slot.putLong(System.currentTimeMillis());
+            slot.putLong(configFingerprint.getAsLong());
+            slot.putInt(body.remaining());
+            slot.putInt((int) bodyCrc);
+            slot.putInt(start, MAGIC);
+            mapped.force();
+            lastCrc = bodyCrc;
+        } catch (Exception e) {
+            System.err.println("Snapshot write error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Periodically captures state on a daemon thread. The supplier should
+     * take the device's lock while it serializes, into a buffer of at most
+     * MAX_STATE_SIZE bytes. A capture that fails is skipped and logged, and the
+     * next one is still attempted.
+     */
+    public void startPeriodic(Supplier<byte[]> state) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-" + deviceId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> capture(state),
+                INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void capture(Supplier<byte[]> state) {
+        // An exception escaping here would silently cancel the periodic task
+        try {
+            byte[] captured = state.get();
+            tooLarge = false;
+            write(captured);
+        } catch (BufferOverflowException e) {
+            if (!tooLarge) {
+                System.err.println("Snapshot too large: state exceeds " + MAX_STATE_SIZE + " bytes; keeping the last one");
+                tooLarge = true;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Snapshot capture error: " + e);
+        }
+    }
+
+    private void map() throws Exception {
+        if (mapped != null) return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * SLOT_SIZE);
+        }
+    }
+
+    private static long crc(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return crc.getValue();
+    }
+
+    public static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Varint.putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Varint.getVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void putPort(ByteBuffer buffer, VirtualPort port) {
+        byte[] address = port.ip.getAddress();
+        buffer.put((byte) address.length);
+        buffer.put(address);
+        Varint.putVarint(buffer, port.port);
+    }
+
+    public static VirtualPort getPort(ByteBuffer buffer) throws Exception {
+        byte[] address = new byte[buffer.get()];
+        buffer.get(address);
+        return new VirtualPort(InetAddress.getByAddress(address), Varint.getVarint(buffer));
+    }
+}
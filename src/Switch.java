@@ -1,22 +1,33 @@
 import java.io.File;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.util.HashMap;
-import java.util.Map;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
 
 /**
  * A virtual network switch that keeps a MAC address table to map
  * MAC addresses to ports, and forwards/floods frames to MAC address.
+ * The table is an array indexed by MAC symbol ID. The switch can run as
+ * several shards, each with its own reuse-port socket on the switch's port,
+ * forwarding independently over one shared MAC table.
  */
 
 public class Switch {
-    private final Map<String, VirtualPort> macToPort = new HashMap<>();
+    private final MacTable macTable;
     private VirtualPort switchPort;
     private final ConfigParser parser;
+    private final SymbolTable symbols;
+    private final LinkEmulator links;
+    private TraceRecorder recorder;
+    private boolean verbose = true;
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.err.println("Usage: java Switch <config-file> <switch-id>");
+            System.err.println("Usage: java Switch <config-file> <switch-id> [shards|auto]");
             System.exit(1);
         }
 
@@ -24,6 +35,9 @@ public class Switch {
             File configFile = new File(args[0]);
             ConfigParser parser = new ConfigParser(configFile);
             String switchId = args[1];
+            int shards = args.length > 2
+                    ? (args[2].equals("auto") ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(args[2]))
+                    : 1;
 
             VirtualPort switchPort = parser.getDevicePort(switchId);
             if (switchPort == null) {
@@ -33,79 +47,249 @@ public class Switch {
 
             System.out.printf("[SWITCH %s] Running on %s:%d\n",
                     switchId, switchPort.ip.getHostAddress(), switchPort.port);
-            new Switch(switchPort, parser).run();
+            Switch device = new Switch(switchId, switchPort, parser);
+            device.enableSnapshots(new StateSnapshot(StateSnapshot.fileFor(configFile, switchId),
+                    switchId, parser::getFingerprint));
+            device.recorder = TraceRecorder.forDevice(switchId, parser.getFingerprint());
+            device.run(shards);
         } catch (Exception e) {
             System.err.println("Switch crashed: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    public Switch(VirtualPort switchPort, ConfigParser parser) {
+    public Switch(String switchId, VirtualPort switchPort, ConfigParser parser) {
         this.switchPort = switchPort;
         this.parser = parser;
+        this.symbols = parser.getSymbols();
+        this.links = new LinkEmulator(parser, symbols.lookup(switchId));
+        this.macTable = new MacTable(switchId, symbols);
+    }
+
+    /**
+     * Called by the config watcher: applies the changed config lines and forgets
+     * learned MACs of devices whose port changed, so they are relearned. The
+     * shards keep forwarding meanwhile; the parser publishes the whole reload
+     * in one write, so they see either the old config or the new one.
+     */
+    private void reloadConfig() {
+        ConfigChanges changes = parser.reload();
+        if (changes.isEmpty()) return;
+        System.out.printf("\n[SWITCH %s] Config reloaded (%d changed lines)\n", switchPort.port, changes.size());
+        if (recorder != null) recorder.rotate(parser.getFingerprint());
+
+        for (int device : changes.getChangedDevices()) {
+            if (macTable.lookup(device) != null) {
+                macTable.forget(device);
+            }
+        }
+    }
+
+    /**
+     * Restores the MAC table from the last valid snapshot, if any,
+     * and starts persisting it periodically
+     */
+    public void enableSnapshots(StateSnapshot snapshot) {
+        ByteBuffer state = snapshot.load();
+        if (state != null) {
+            try {
+                int entries = Varint.getVarint(state);
+                for (int i = 0; i < entries; i++) {
+                    int mac = symbols.intern(StateSnapshot.getString(state));
+                    macTable.learn(mac, StateSnapshot.getPort(state));
+                }
+                macTable.sync();
+                System.out.printf("[MAC TABLE] Restored %d entries from snapshot\n", macTable.getLearnedMacs().length);
+            } catch (Exception e) {
+                System.err.println("Ignoring invalid snapshot: " + e.getMessage());
+                for (int mac : macTable.getLearnedMacs()) {
+                    macTable.forget(mac);
+                }
+                macTable.sync();
+            }
+        }
+        snapshot.startPeriodic(this::snapshotState);
+    }
+
+    private byte[] snapshotState() {
+        int[] learned = macTable.getLearnedMacs();
+        VirtualPort[] ports = new VirtualPort[learned.length];
+        int count = 0;
+        for (int i = 0; i < learned.length; i++) {
+            ports[i] = macTable.lookup(learned[i]);
+            if (ports[i] != null) count++;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(StateSnapshot.MAX_STATE_SIZE);
+        Varint.putVarint(buffer, count);
+        for (int i = 0; i < learned.length; i++) {
+            if (ports[i] == null) continue;
+            StateSnapshot.putString(buffer, symbols.name(learned[i]));
+            StateSnapshot.putPort(buffer, ports[i]);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
     }
 
     public void run() {
-        try (DatagramSocket socket = new DatagramSocket(switchPort.port)) {
-            System.out.println("[MAC TABLE] Initialized (empty)");
-            byte[] buffer = new byte[1024];
+        run(1);
+    }
 
-            while (true) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
+    /**
+     * Forwards frames on the given number of shards. Each shard binds its own
+     * SO_REUSEPORT socket, and the kernel spreads senders across them by address,
+     * so frames from one host always reach the same shard and stay in order.
+     * Per-frame logging is left out when sharded, since it would serialize the shards.
+     */
+    public void run(int shards) {
+        try {
+            DatagramSocket[] sockets = openShards(shards);
+            verbose = sockets.length == 1;
+            macTable.setLearnInline(sockets.length == 1);
+            if (macTable.getLearnedMacs().length == 0) {
+                System.out.println("[MAC TABLE] Initialized (empty)");
+            }
+            new ConfigWatcher(parser.getConfigFile(), this::reloadConfig).start();
 
-                Frame frame = new Frame();
-                frame.readPacket(packet);
+            for (int shard = 1; shard < sockets.length; shard++) {
+                DatagramSocket socket = sockets[shard];
+                new Thread(() -> {
+                    try {
+                        receive(socket);
+                    } catch (Exception e) {
+                        System.err.println("Switch shard error: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                }, "switch-shard-" + shard).start();
+            }
+            receive(sockets[0]);
+        } catch (Exception e) {
+            System.err.println("Switch error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-                if (frame.type == 0) {
-                    System.out.println("[SWITCH] Ignoring routing update packet");
-                    continue;
+    private DatagramSocket[] openShards(int shards) throws Exception {
+        if (shards > 1) {
+            try (DatagramChannel probe = DatagramChannel.open(StandardProtocolFamily.INET)) {
+                if (!probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    System.err.println("[SWITCH] SO_REUSEPORT is not supported here; running one shard");
+                    shards = 1;
                 }
+            }
+        }
+        if (shards <= 1) {
+            return new DatagramSocket[] { new DatagramSocket(switchPort.port) };
+        }
 
-                System.out.printf("\n[SWITCH %s] Received frame: %s → %s (%s → %s)\n",
-                        switchPort.port, frame.sourceMac, frame.destMac,
-                        frame.sourceIp, frame.destIp);
-
-                VirtualPort sourcePort = new VirtualPort(packet.getAddress(), packet.getPort());
-                macToPort.put(frame.sourceMac, sourcePort);
-
-                System.out.println("[MAC TABLE] Current state:");
-                macToPort.forEach((mac, port) -> {
-                    System.out.printf("  %s → %s:%d\n", mac, port.ip.getHostAddress(), port.port);
-                });
-
-                if (frame.destMac.startsWith("R")) {
-                    VirtualPort routerPort = parser.getDevicePort(frame.destMac);
-                    if (routerPort != null) {
-                        socket.send(frame.writePacket(routerPort.ip, routerPort.port));
-                        System.out.printf("[FORWARDED] To router %s (%s:%d)\n",
-                                frame.destMac, routerPort.ip.getHostAddress(), routerPort.port);
-                        continue;
-                    }
+        DatagramSocket[] sockets = new DatagramSocket[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.bind(new InetSocketAddress(switchPort.port));
+            sockets[shard] = channel.socket();
+        }
+        System.out.printf("[SWITCH %s] Forwarding on %d shards\n", switchPort.port, shards);
+        return sockets;
+    }
+
+    private void receive(DatagramSocket socket) throws Exception {
+        byte[] buffer = new byte[Frame.MAX_FRAME_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+        while (true) {
+            packet.setLength(buffer.length);
+            socket.receive(packet);
+            if (recorder != null) recorder.record(TraceRecorder.RECEIVED, packet);
+
+            try {
+                forward(socket, packet);
+            } catch (RuntimeException e) {
+                System.err.printf("[SWITCH %s] Dropped undecodable frame from %s:%d: %s\n",
+                        switchPort.port, packet.getAddress().getHostAddress(), packet.getPort(), e);
+            }
+        }
+    }
+
+    private void forward(DatagramSocket socket, DatagramPacket packet) throws Exception {
+        Frame frame = new Frame(symbols);
+        if (verbose) {
+            frame.readPacket(packet);
+        } else {
+            frame.read(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
+        }
+
+        if (frame.type == 0) {
+            if (verbose) System.out.println("[SWITCH] Ignoring routing update packet");
+            return;
+        }
+
+        if (verbose) {
+            System.out.printf("\n[SWITCH %s] Received frame: %s → %s (%s → %s)\n",
+                    switchPort.port, symbols.name(frame.sourceMac), symbols.name(frame.destMac),
+                    symbols.name(frame.sourceIp), symbols.name(frame.destIp));
+        }
+
+        macTable.learn(frame.sourceMac, new VirtualPort(packet.getAddress(), packet.getPort()));
+
+        if (verbose) {
+            System.out.println("[MAC TABLE] Current state:");
+            for (int mac : macTable.getLearnedMacs()) {
+                VirtualPort port = macTable.lookup(mac);
+                if (port != null) {
+                    System.out.printf("  %s → %s:%d\n", symbols.name(mac), port.ip.getHostAddress(), port.port);
                 }
+            }
+        }
 
-                VirtualPort destPort = macToPort.get(frame.destMac);
-                if (destPort != null) {
-                    socket.send(frame.writePacket(destPort.ip, destPort.port));
-                    System.out.printf("[FORWARDED] To %s (%s:%d)\n",
-                            frame.destMac, destPort.ip.getHostAddress(), destPort.port);
-                } else {
-                    macToPort.forEach((mac, port) -> {
-                        if (!mac.equals(frame.sourceMac)) {
-                            try {
-                                socket.send(frame.writePacket(port.ip, port.port));
-                                System.out.printf("[FLOODED] To %s (%s:%d)\n",
-                                        mac, port.ip.getHostAddress(), port.port);
-                            } catch (Exception e) {
-                                System.err.println("Flood error: " + e.getMessage());
-                            }
-                        }
-                    });
+        if (parser.isRouter(frame.destMac)) {
+            VirtualPort routerPort = parser.getDevicePort(frame.destMac);
+            if (routerPort != null) {
+                links.send(socket, packetFor(frame, routerPort), frame.destMac);
+                if (verbose) {
+                    System.out.printf("[FORWARDED] To router %s (%s:%d)\n",
+                            symbols.name(frame.destMac), routerPort.ip.getHostAddress(), routerPort.port);
                 }
+                return;
             }
-        } catch (Exception e) {
-            System.err.println("Switch error: " + e.getMessage());
-            e.printStackTrace();
         }
+
+        VirtualPort destPort = macTable.lookup(frame.destMac);
+        if (destPort != null) {
+            links.send(socket, packetFor(frame, destPort), frame.destMac);
+            if (verbose) {
+                System.out.printf("[FORWARDED] To %s (%s:%d)\n",
+                        symbols.name(frame.destMac), destPort.ip.getHostAddress(), destPort.port);
+            }
+        } else {
+            // Encode the frame once and re-address the same datagram for each port
+            DatagramPacket flood = null;
+            for (int mac : macTable.getLearnedMacs()) {
+                VirtualPort port = macTable.lookup(mac);
+                if (mac == frame.sourceMac || port == null) continue;
+                try {
+                    if (flood == null) {
+                        flood = packetFor(frame, port);
+                    } else {
+                        flood.setAddress(port.ip);
+                        flood.setPort(port.port);
+                    }
+                    links.send(socket, flood, mac);
+                    if (verbose) {
+                        System.out.printf("[FLOODED] To %s (%s:%d)\n",
+                                symbols.name(mac), port.ip.getHostAddress(), port.port);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Flood error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private DatagramPacket packetFor(Frame frame, VirtualPort port) {
+        if (verbose) {
+            return frame.writePacket(port.ip, port.port);
+        }
+        byte[] payload = frame.toBytes();
+        return new DatagramPacket(payload, payload.length, port.ip, port.port);
     }
-}
\ No newline at end of file
+}
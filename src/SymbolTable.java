@@ -0,0 +1,237 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A symbol table that interns every MAC, IP, subnet and device name into a dense
+ * int ID. The names in the loaded config also get a wire key: their rank in
+ * sorted order, so every device loading the same config agrees on it however it
+ * got there, and can exchange it on the wire as a short varint instead of a
+ * string. The keys are tagged with the config's fingerprint, which frames carry,
+ * so a frame from a device on another config is refused rather than misread.
+ * Dotted IPs also record the ID of their subnet prefix.
+ */
+
+public class SymbolTable {
+    public static final int DIRECT = 0;
+    public static final int DV = 1;
+    public static final int INITIALIZATION = 2;
+
+    /**
+     * One assignment of wire keys, for the config with the given fingerprint.
+     * Key 0 marks a literal name; config names are keyed from 1 up.
+     */
+    public final class WireKeys {
+        public final int fingerprint;
+        private final int[] localToKey;
+        private final int[] keyToLocal;
+
+        private WireKeys(int fingerprint, int[] localToKey, int[] keyToLocal) {
+            this.fingerprint = fingerprint;
+            this.localToKey = localToKey;
+            this.keyToLocal = keyToLocal;
+        }
+
+        private int keyOf(int id) {
+            return id >= 0 && id < localToKey.length ? localToKey[id] : 0;
+        }
+
+        /**
+         * Config names are written as their wire key; anything learned locally is
+         * written as a 0 marker followed by the UTF-8 name so the receiver can intern it itself.
+         */
+        public void writeSymbol(ByteBuffer buffer, int id) {
+            int key = keyOf(id);
+            if (key > 0) {
+                Varint.putVarint(buffer, key);
+            } else {
+                byte[] bytes = name(id).getBytes(StandardCharsets.UTF_8);
+                Varint.putVarint(buffer, 0);
+                Varint.putVarint(buffer, bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        public int symbolSize(int id) {
+            int key = keyOf(id);
+            if (key > 0) {
+                return Varint.varintSize(key);
+            }
+            int length = name(id).getBytes(StandardCharsets.UTF_8).length;
+            return 1 + Varint.varintSize(length) + length;
+        }
+
+        public int readSymbol(ByteBuffer buffer) {
+            int key = Varint.getVarint(buffer);
+            if (key != 0) {
+                if (key >= keyToLocal.length) {
+                    throw new IllegalArgumentException("Unknown wire key " + key);
+                }
+                return keyToLocal[key];
+            }
+            byte[] bytes = new byte[Varint.getVarint(buffer)];
+            buffer.get(bytes);
+            return intern(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private volatile String[] names = new String[16];
+    private volatile int[] subnetOf = new int[16];
+    private volatile int[] slots = new int[32];
+    private volatile int size;
+    private volatile WireKeys keys;
+
+    public SymbolTable() {
+        intern("Direct");
+        intern("DV");
+        intern("Initialization");
+        assignWireKeys(0, new int[0]);
+    }
+
+    /**
+     * Interns a name; it is written to the wire as a literal until it gets a wire key
+     */
+    public synchronized int intern(String name) {
+        int slot = findSlot(name);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+
+        int dot = name.indexOf('.');
+        int subnet = dot > 0 ? intern(name.substring(0, dot)) : -1;
+        if (subnet >= 0) {
+            slot = findSlot(name);
+        }
+
+        int id = size;
+        if (id == names.length) {
+            subnetOf = Arrays.copyOf(subnetOf, id * 2);
+            names = Arrays.copyOf(names, id * 2);
+        }
+        names[id] = name;
+        subnetOf[id] = subnet >= 0 ? subnet : id;
+        slots[slot] = id + 1;
+        size = id + 1;
+
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Keys the given config names, plus the built-in ones, by their rank in
+     * sorted order and makes that the assignment frames are written and read with
+     */
+    public synchronized void assignWireKeys(long fingerprint, int[] configNames) {
+        int[] ids = new int[configNames.length + 3];
+        System.arraycopy(configNames, 0, ids, 3, configNames.length);
+        ids[1] = DV;
+        ids[2] = INITIALIZATION;
+        String[] current = names;
+        int[] sorted = Arrays.stream(ids).distinct().boxed()
+                .sorted(Comparator.comparing(id -> current[id]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        int[] localToKey = new int[size];
+        int[] keyToLocal = new int[sorted.length + 1];
+        for (int rank = 0; rank < sorted.length; rank++) {
+            localToKey[sorted[rank]] = rank + 1;
+            keyToLocal[rank + 1] = sorted[rank];
+        }
+        keys = new WireKeys((int) fingerprint, localToKey, keyToLocal);
+    }
+
+    /**
+     * The wire keys in use; encode or decode a whole frame with one of these
+     */
+    public WireKeys wireKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns the ID of a name, or -1 if it was never interned. Reads the table
+     * without locking; only a name being interned at the same moment falls back to the lock.
+     */
+    public int lookup(String name) {
+        if (size == 0) return -1;
+        int[] table = slots;
+        String[] current = names;
+        int mask = table.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            String candidate = entry <= current.length ? current[entry - 1] : null;
+            if (candidate == null) return lookupLocked(name);
+            if (candidate.equals(name)) return entry - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private synchronized int lookupLocked(String name) {
+        return slots[findSlot(name)] - 1;
+    }
+
+    public String name(int id) {
+        String[] current = names;
+        return id >= 0 && id < current.length && current[id] != null ? current[id] : "?" + id;
+    }
+
+    /**
+     * Returns the ID of the subnet an IP belongs to (net1.A → net1),
+     * or the ID itself for names without a subnet prefix
+     */
+    public int subnetOf(int id) {
+        int[] current = subnetOf;
+        return id >= 0 && id < current.length ? current[id] : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void writeSymbol(ByteBuffer buffer, int id) {
+        keys.writeSymbol(buffer, id);
+    }
+
+    public int symbolSize(int id) {
+        return keys.symbolSize(id);
+    }
+
+    public int readSymbol(ByteBuffer buffer) {
+        return keys.readSymbol(buffer);
+    }
+
+    private int findSlot(String name) {
+        int mask = slots.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        while (slots[slot] != 0 && !names[slots[slot] - 1].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        // Fill the new table before publishing it, since lookup() reads slots without the lock
+        int[] old = slots;
+        int[] table = new int[old.length * 2];
+        int mask = table.length - 1;
+        for (int entry : old) {
+            if (entry == 0) continue;
+            int slot = mix(names[entry - 1].hashCode()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry;
+        }
+        slots = table;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel that hands items to a callback once their deadline
+ * passes. Each slot is an intrusive list threaded through parallel arrays,
+ * so scheduling allocates nothing per item and hundreds of thousands of
+ * pending items cost a few bytes each. Deadlines further out than one turn
+ * of the wheel simply stay in their slot until the right turn comes round.
+ */
+
+public class TimingWheel<T> {
+    private final long tickMicros;
+    private final int mask;
+    private final int[] slots;
+    private long[] deadlineTicks = new long[256];
+    private Object[] items = new Object[256];
+    private int[] next = new int[256];
+    private int free = -1;
+    private int used;
+    private int size;
+    private long processedTick;
+    private final long originNanos = System.nanoTime();
+    private final Consumer<T> onExpiry;
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    /**
+     * Starts a daemon thread that fires expired items every tick. The slot
+     * count is rounded up to a power of two.
+     */
+    public TimingWheel(String name, long tickMicros, int slotCount, Consumer<T> onExpiry) {
+        this.tickMicros = tickMicros;
+        this.slots = new int[Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1];
+        this.mask = slots.length - 1;
+        this.onExpiry = onExpiry;
+        Arrays.fill(slots, -1);
+
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Microseconds since the wheel was created, the clock deadlines are measured on
+     */
+    public long nowMicros() {
+        return (System.nanoTime() - originNanos) / 1_000;
+    }
+
+    /**
+     * Stops the wheel's thread; items still pending are dropped
+     */
+    public void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void schedule(long deadlineMicros, T item) {
+        long tick = Math.max((deadlineMicros + tickMicros - 1) / tickMicros, processedTick + 1);
+
+        int index;
+        if (free >= 0) {
+            index = free;
+            free = next[index];
+        } else {
+            if (used == items.length) {
+                deadlineTicks = Arrays.copyOf(deadlineTicks, used * 2);
+                items = Arrays.copyOf(items, used * 2);
+                next = Arrays.copyOf(next, used * 2);
+            }
+            index = used++;
+        }
+
+        int slot = (int) (tick & mask);
+        deadlineTicks[index] = tick;
+        items[index] = item;
+        next[index] = slots[slot];
+        slots[slot] = index;
+        if (size++ == 0) {
+            notifyAll();
+        }
+    }
+
+    private void run() {
+        List<T> expired = new ArrayList<>();
+        while (!stopped) {
+            try {
+                synchronized (this) {
+                    while (size == 0) {
+                        wait();
+                    }
+                    collectExpired(expired);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            for (T item : expired) {
+                try {
+                    onExpiry.accept(item);
+                } catch (RuntimeException e) {
+                    System.err.println("Timer callback failed: " + e.getMessage());
+                }
+            }
+            expired.clear();
+
+            long untilNextTick = tickMicros - nowMicros() % tickMicros;
+            LockSupport.parkNanos(untilNextTick * 1_000);
+        }
+    }
+
+    /**
+     * Walks every slot passed since the last call. After a long stall only one
+     * full turn is walked, which still visits every slot.
+     */
+    @SuppressWarnings("unchecked")
+    private void collectExpired(List<T> expired) {
+        long currentTick = nowMicros() / tickMicros;
+        for (long tick = Math.max(processedTick + 1, currentTick - mask); tick <= currentTick; tick++) {
+            int slot = (int) (tick & mask);
+            int previous = -1;
+            int index = slots[slot];
+            while (index >= 0) {
+                int following = next[index];
+                if (deadlineTicks[index] <= currentTick) {
+                    if (previous < 0) slots[slot] = following;
+                    else next[previous] = following;
+
+                    expired.add((T) items[index]);
+                    items[index] = null;
+                    next[index] = free;
+                    free = index;
+                    size--;
+                } else {
+                    previous = index;
+                }
+                index = following;
+            }
+        }
+        processedTick = Math.max(processedTick, currentTick);
+    }
+}
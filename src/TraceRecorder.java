@@ -0,0 +1,229 @@
+import java.io.*;
+import java.net.DatagramPacket;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records timestamped frames seen by a device to a compact binary trace file.
+ * Each record is a varint microsecond delta from the previous record, a
+ * direction byte, and the raw frame bytes. Recording is enabled by starting
+ * a device with -Dtrace.dir=<directory>, which writes <device>.trace there.
+ * The header names the config the frames were encoded against, so a config
+ * reload starts a new file, <device>.1.trace, <device>.2.trace and so on.
+ */
+
+public class TraceRecorder {
+    private static final int MAGIC = 0x56495054;
+    private static final int VERSION = 1;
+    private static final long FLUSH_MILLIS = 200;
+    public static final byte RECEIVED = 0;
+    public static final byte SENT = 1;
+
+    public static class Record {
+        public final long micros;
+        public final byte direction;
+        public final byte[] frame;
+
+        public Record(long micros, byte direction, byte[] frame) {
+            this.micros = micros;
+            this.direction = direction;
+            this.frame = frame;
+        }
+    }
+
+    public static class Trace {
+        public final String deviceId;
+        public final long configFingerprint;
+        public final List<Record> records;
+
+        public Trace(String deviceId, long configFingerprint, List<Record> records) {
+            this.deviceId = deviceId;
+            this.configFingerprint = configFingerprint;
+            this.records = records;
+        }
+    }
+
+    private final File file;
+    private final String deviceId;
+    private DataOutputStream out;
+    private final byte[] varint = new byte[10];
+    private long fingerprint;
+    private long lastMicros;
+    private int segment;
+    private boolean closed;
+    private final Thread flusher;
+    private final Thread closeHook;
+
+    public TraceRecorder(File file, String deviceId, long configFingerprint) throws IOException {
+        this.file = file;
+        this.deviceId = deviceId;
+        open(file, configFingerprint);
+
+        closeHook = new Thread(this::close);
+        Runtime.getRuntime().addShutdownHook(closeHook);
+        flusher = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(FLUSH_MILLIS);
+                    flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "trace-flush-" + deviceId);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void open(File target, long configFingerprint) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(deviceId);
+        out.writeLong(fingerprint = configFingerprint);
+        out.writeLong(lastMicros = nowMicros());
+        System.out.println("[TRACE] Recording frames to " + target);
+    }
+
+    /**
+     * Called after a config reload: if the config changed, closes the current
+     * file and continues in the next one, with a header for the new config
+     */
+    public synchronized void rotate(long configFingerprint) {
+        if (closed || configFingerprint == fingerprint) return;
+        String name = file.getName();
+        String base = name.endsWith(".trace") ? name.substring(0, name.length() - ".trace".length()) : name;
+        File next = new File(file.getParentFile(), base + "." + ++segment + ".trace");
+        try {
+            out.close();
+            open(next, configFingerprint);
+        } catch (IOException e) {
+            System.err.println("Trace disabled: " + e.getMessage());
+            closed = true;
+        }
+    }
+
+    /**
+     * Returns a recorder for the device if -Dtrace.dir is set, otherwise null
+     */
+    public static TraceRecorder forDevice(String deviceId, long configFingerprint) {
+        String directory = System.getProperty("trace.dir");
+        if (directory == null) return null;
+        try {
+            return new TraceRecorder(new File(directory, deviceId + ".trace"), deviceId, configFingerprint);
+        } catch (IOException e) {
+            System.err.println("Trace disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
+
+    public void record(byte direction, DatagramPacket packet) {
+        record(direction, packet.getData(), packet.getOffset(), packet.getLength());
+    }
+
+    public synchronized void record(byte direction, byte[] frame, int offset, int length) {
+        if (closed) return;
+        try {
+            long micros = nowMicros();
+            writeVarint(Math.max(0, micros - lastMicros));
+            lastMicros = micros;
+            out.writeByte(direction);
+            writeVarint(length);
+            out.write(frame, offset, length);
+        } catch (IOException e) {
+            System.err.println("Trace write error: " + e.getMessage());
+        }
+    }
+
+    public synchronized void flush() {
+        if (closed) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Trace flush error: " + e.getMessage());
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        flusher.interrupt();
+        if (Thread.currentThread() != closeHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(closeHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down; the hook finds the recorder closed
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Trace close error: " + e.getMessage());
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        int length = 0;
+        while ((value & ~0x7FL) != 0) {
+            varint[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        varint[length++] = (byte) value;
+        out.write(varint, 0, length);
+    }
+
+    public static Trace read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a trace file: " + file);
+            }
+            String deviceId = in.readUTF();
+            long fingerprint = in.readLong();
+            long micros = in.readLong();
+
+            List<Record> records = new ArrayList<>();
+            while (true) {
+                int first = in.read();
+                if (first < 0) break;
+                try {
+                    micros += readVarint(in, first);
+                    byte direction = in.readByte();
+                    byte[] frame = new byte[(int) readVarint(in, in.readUnsignedByte())];
+                    in.readFully(frame);
+                    records.add(new Record(micros, direction, frame));
+                } catch (EOFException e) {
+                    // The device was killed mid-record; keep everything before it
+                    break;
+                }
+            }
+            return new Trace(deviceId, fingerprint, records);
+        }
+    }
+
+    private static long readVarint(DataInputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    public static String describe(Trace trace) {
+        long bytes = 0;
+        for (Record record : trace.records) bytes += record.frame.length;
+        long span = trace.records.isEmpty() ? 0
+                : trace.records.get(trace.records.size() - 1).micros - trace.records.get(0).micros;
+        return String.format("%s: %d frames, %d bytes over %.3f s",
+                trace.deviceId, trace.records.size(), bytes, span / 1e6);
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.File;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays recorded Host traces into a running topology so two builds can be
+ * compared on identical traffic. The driver stands in for every host in the
+ * config (so the Host processes must not be running), tags each replayed
+ * frame with a probe header, and reports end-to-end latency, reordering and
+ * loss. If the switches and routers were started with -Dtrace.dir, passing
+ * that directory with --hops also reports the latency of each hop.
+ */
+
+public class TraceReplay {
+    private static final int PROBE_MAGIC = 0x50524F42;
+    private static final int PROBE_SIZE = 4 + 8 + 4;
+
+    private final ConfigParser parser;
+    private final SymbolTable symbols;
+    private final long runId = new Random().nextLong();
+    private DatagramSocket[] hostSockets = new DatagramSocket[0];
+    private LinkEmulator[] hostLinks = new LinkEmulator[0];
+    private long[] sentMicros;
+    private int[] sentFrom;
+    private int[] sentTo;
+    private long[] receivedMicros;
+    private int duplicates;
+    private int reordered;
+    private int skipped;
+    private final Map<Long, Integer> highestSeqPerFlow = new HashMap<>();
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java TraceReplay <config-file> <trace-file>... "
+                    + "[--fast] [--hops <trace-dir>] [--wait <ms>]");
+            System.exit(1);
+        }
+
+        boolean fast = false;
+        File hopsDir = null;
+        long waitMillis = 2000;
+        List<File> traceFiles = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--fast" -> fast = true;
+                case "--hops" -> hopsDir = new File(args[++i]);
+                case "--wait" -> waitMillis = Long.parseLong(args[++i]);
+                default -> traceFiles.add(new File(args[i]));
+            }
+        }
+
+        try {
+            TraceReplay replay = new TraceReplay(new ConfigParser(new File(args[0])));
+            replay.run(traceFiles, fast, waitMillis);
+            if (hopsDir != null) {
+                replay.reportHops(hopsDir);
+            }
+            System.exit(0);
+        } catch (Exception e) {
+            System.err.println("Replay failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public TraceReplay(ConfigParser parser) {
+        this.parser = parser;
+        this.symbols = parser.getSymbols();
+    }
+
+    public void run(List<File> traceFiles, boolean fast, long waitMillis) throws Exception {
+        List<TraceRecorder.Record> sends = new ArrayList<>();
+        for (File file : traceFiles) {
+            TraceRecorder.Trace trace = TraceRecorder.read(file);
+            if (trace.configFingerprint != parser.getFingerprint()) {
+                // Recorded before or after a reload of the config; its frames may not decode against this one
+                System.err.println("[REPLAY] Skipping " + file + ": recorded against a different config");
+                continue;
+            }
+            System.out.println("[REPLAY] Loaded " + TraceRecorder.describe(trace));
+            for (TraceRecorder.Record record : trace.records) {
+                if (record.direction == TraceRecorder.SENT) {
+                    sends.add(record);
+                }
+            }
+        }
+        sends.sort(Comparator.comparingLong(record -> record.micros));
+
+        List<Frame> frames = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        for (TraceRecorder.Record record : sends) {
+            Frame frame = new Frame(symbols);
+            try {
+                frame.read(ByteBuffer.wrap(record.frame));
+            } catch (RuntimeException e) {
+                System.err.println("[REPLAY] Skipping undecodable frame: " + e);
+                continue;
+            }
+            if (frame.type == 0 || frame.destIp == SymbolTable.INITIALIZATION) continue;
+            frames.add(frame);
+            offsets.add(record.micros - sends.get(0).micros);
+        }
+
+        sentMicros = new long[frames.size()];
+        sentFrom = new int[frames.size()];
+        sentTo = new int[frames.size()];
+        receivedMicros = new long[frames.size()];
+
+        openHosts();
+        System.out.printf("[REPLAY] Replaying %d frames %s\n", frames.size(),
+                fast ? "as fast as possible" : "at original timing");
+
+        long startNanos = System.nanoTime();
+        for (int seq = 0; seq < frames.size(); seq++) {
+            if (!fast) {
+                long due = startNanos + offsets.get(seq) * 1_000;
+                long delay;
+                while ((delay = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+            }
+
+            Frame frame = frames.get(seq);
+            DatagramSocket socket = socketFor(frame.sourceMac);
+            VirtualPort switchPort = parser.getDevicePort(findSwitch(frame.sourceMac));
+            if (socket == null || switchPort == null) {
+                System.err.println("[REPLAY] No host socket for " + symbols.name(frame.sourceMac));
+                skipped++;
+                continue;
+            }
+
+            // The probe header can push a frame that was near the limit over it
+            frame.data = probe(seq, frame.data);
+            byte[] payload;
+            try {
+                payload = frame.toBytes();
+            } catch (IllegalStateException e) {
+                System.err.println("[REPLAY] Skipping oversized frame from " + symbols.name(frame.sourceMac) + ": " + e.getMessage());
+                skipped++;
+                continue;
+            }
+            sentFrom[seq] = frame.sourceMac;
+            sentTo[seq] = frame.destIp;
+            sentMicros[seq] = TraceRecorder.nowMicros();
+            hostLinks[frame.sourceMac].send(socket,
+                    new DatagramPacket(payload, payload.length, switchPort.ip, switchPort.port),
+                    findSwitch(frame.sourceMac));
+        }
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+
+        Thread.sleep(waitMillis);
+        for (DatagramSocket socket : hostSockets) {
+            if (socket != null) socket.close();
+        }
+        report(elapsed);
+    }
+
+    /**
+     * Binds every host's port and sends the same initialization frame a Host
+     * would, so the switches learn where each host is
+     */
+    private void openHosts() throws Exception {
+        for (int host : parser.getHosts()) {
+            VirtualPort hostPort = parser.getDevicePort(host);
+            int switchId = findSwitch(host);
+            VirtualPort switchPort = parser.getDevicePort(switchId);
+            if (hostPort == null || switchPort == null) continue;
+
+            DatagramSocket socket = new DatagramSocket(hostPort.port);
+            if (host >= hostSockets.length) {
+                hostSockets = Arrays.copyOf(hostSockets, host + 1);
+                hostLinks = Arrays.copyOf(hostLinks, host + 1);
+            }
+            hostSockets[host] = socket;
+            hostLinks[host] = new LinkEmulator(parser, host);
+
+            byte[] message = ("Host " + symbols.name(host) + " has connected").getBytes();
+            Frame init = new Frame(symbols, host, switchId, parser.getVirtualIp(host),
+                    SymbolTable.INITIALIZATION, message, 1);
+            byte[] payload = init.toBytes();
+            socket.send(new DatagramPacket(payload, payload.length, switchPort.ip, switchPort.port));
+
+            Thread receiver = new Thread(() -> receive(socket), "replay-" + symbols.name(host));
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+        Thread.sleep(200);
+    }
+
+    private DatagramSocket socketFor(int host) {
+        return host >= 0 && host < hostSockets.length ? hostSockets[host] : null;
+    }
+
+    private int findSwitch(int host) {
+        for (int neighbor : parser.getNeighbors(host)) {
+            if (parser.isSwitch(neighbor)) return neighbor;
+        }
+        return -1;
+    }
+
+    private byte[] probe(int seq, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(PROBE_SIZE + data.length);
+        buffer.putInt(PROBE_MAGIC);
+        buffer.putLong(runId);
+        buffer.putInt(seq);
+        buffer.put(data);
+        return buffer.array();
+    }
+
+    /**
+     * Returns the probe sequence number carried by a frame from this run, or -1
+     */
+    private int probeSeq(byte[] data) {
+        if (data.length < PROBE_SIZE) return -1;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != PROBE_MAGIC || buffer.getLong() != runId) return -1;
+        int seq = buffer.getInt();
+        return seq >= 0 && seq < sentMicros.length ? seq : -1;
+    }
+
+    private void receive(DatagramSocket socket) {
+        byte[] buffer = new byte[Frame.MAX_FRAME_SIZE];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                long now = TraceRecorder.nowMicros();
+
+                Frame frame = new Frame(symbols);
+                frame.read(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
+                int seq = probeSeq(frame.data);
+                if (seq < 0) continue;
+
+                synchronized (this) {
+                    if (receivedMicros[seq] != 0) {
+                        duplicates++;
+                        continue;
+                    }
+                    receivedMicros[seq] = now;
+
+                    long flow = ((long) sentFrom[seq] << 32) | sentTo[seq];
+                    int highest = highestSeqPerFlow.getOrDefault(flow, -1);
+                    if (seq < highest) {
+                        reordered++;
+                    } else {
+                        highestSeqPerFlow.put(flow, seq);
+                    }
+                }
+            } catch (Exception e) {
+                if (!socket.isClosed()) {
+                    System.err.println("[REPLAY] Receive error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private synchronized void report(double elapsedSeconds) {
+        // Frames that were skipped were never sent, so they do not count as lost
+        long[] latencies = new long[sentMicros.length];
+        int sent = 0;
+        int delivered = 0;
+        for (int seq = 0; seq < sentMicros.length; seq++) {
+            if (sentMicros[seq] == 0) continue;
+            sent++;
+            if (receivedMicros[seq] != 0) {
+                latencies[delivered++] = receivedMicros[seq] - sentMicros[seq];
+            }
+        }
+        latencies = Arrays.copyOf(latencies, delivered);
+
+        System.out.println("\n[REPLAY] Results");
+        System.out.printf("  Sent:       %d frames in %.3f s (%.0f frames/s)\n",
+                sent, elapsedSeconds, elapsedSeconds > 0 ? sent / elapsedSeconds : 0);
+        System.out.printf("  Skipped:    %d\n", skipped);
+        System.out.printf("  Delivered:  %d\n", delivered);
+        System.out.printf("  Lost:       %d (%.2f%%)\n", sent - delivered,
+                sent > 0 ? 100.0 * (sent - delivered) / sent : 0);
+        System.out.printf("  Reordered:  %d\n", reordered);
+        System.out.printf("  Duplicates: %d\n", duplicates);
+        System.out.println("  End-to-end latency: " + summarize(latencies));
+    }
+
+    /**
+     * Matches this run's probes in the device traces and reports the latency
+     * between consecutive devices on each frame's path
+     */
+    public void reportHops(File traceDir) throws Exception {
+        Map<Integer, List<long[]>> sightings = new HashMap<>();
+        File[] files = traceDir.listFiles((dir, name) -> name.endsWith(".trace"));
+        if (files == null) files = new File[0];
+
+        for (File file : files) {
+            TraceRecorder.Trace trace = TraceRecorder.read(file);
+            if (trace.configFingerprint != parser.getFingerprint()) continue;
+            int device = symbols.intern(trace.deviceId);
+            for (TraceRecorder.Record record : trace.records) {
+                if (record.direction != TraceRecorder.RECEIVED) continue;
+                Frame frame = new Frame(symbols);
+                try {
+                    frame.read(ByteBuffer.wrap(record.frame));
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                int seq = probeSeq(frame.data);
+                if (seq >= 0) {
+                    sightings.computeIfAbsent(seq, k -> new ArrayList<>()).add(new long[]{record.micros, device});
+                }
+            }
+        }
+
+        Map<String, List<Long>> hops = new TreeMap<>();
+        for (int seq = 0; seq < sentMicros.length; seq++) {
+            if (receivedMicros[seq] == 0) continue;
+            List<long[]> path = new ArrayList<>(sightings.getOrDefault(seq, Collections.emptyList()));
+            path.add(new long[]{sentMicros[seq], sentFrom[seq]});
+            path.add(new long[]{receivedMicros[seq], parser.getMacForIp(sentTo[seq])});
+            path.sort(Comparator.comparingLong(sighting -> sighting[0]));
+
+            for (int i = 1; i < path.size(); i++) {
+                String hop = symbols.name((int) path.get(i - 1)[1]) + " → " + symbols.name((int) path.get(i)[1]);
+                hops.computeIfAbsent(hop, k -> new ArrayList<>()).add(path.get(i)[0] - path.get(i - 1)[0]);
+            }
+        }
+
+        System.out.printf("\n[REPLAY] Per-hop latency from %d device traces\n", files.length);
+        for (Map.Entry<String, List<Long>> hop : hops.entrySet()) {
+            long[] latencies = hop.getValue().stream().mapToLong(Long::longValue).toArray();
+            System.out.printf("  %-12s %s\n", hop.getKey(), summarize(latencies));
+        }
+    }
+
+    private static String summarize(long[] micros) {
+        if (micros.length == 0) return "n/a";
+        long[] sorted = micros.clone();
+        Arrays.sort(sorted);
+        double sum = 0;
+        for (long value : sorted) sum += value;
+        return String.format("n=%d min=%dus avg=%.0fus p50=%dus p99=%dus max=%dus",
+                sorted.length, sorted[0], sum / sorted.length, percentile(sorted, 50),
+                percentile(sorted, 99), sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}